@@ -0,0 +1,204 @@
+package bufmgr;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The Adaptive Replacement Cache policy (Megiddo and Modha): resident pages
+ * are kept in two LRU lists, T1 for pages referenced once and T2 for pages
+ * referenced again, and the ids of pages recently replaced from each one are
+ * kept in "ghost" lists B1 and B2.  A miss on a ghost shows which list was
+ * too small, and adapts the target size of T1 accordingly.
+ * <br><br>
+ * Since a victim may be pinned, the target is adapted when the missing page
+ * is read in (i.e. after choosing its frame) and the victim is the least
+ * recently used unpinned page of the chosen list.
+ */
+class ARC extends Replacer {
+
+  /** List of a frame that is empty. */
+  protected static final int NONE = 0;
+
+  /** List of a frame whose page has been referenced once. */
+  protected static final int T1 = 1;
+
+  /** List of a frame whose page has been referenced again. */
+  protected static final int T2 = 2;
+
+  // --------------------------------------------------------------------------
+
+  /** Target size of T1, in frames. */
+  protected int p;
+
+  /** Each frame's position in its list (the lowest is least recently used). */
+  protected long[] order;
+
+  /** Ids of the pages recently replaced from T1, least recent first. */
+  protected LinkedHashSet<Integer> b1;
+
+  /** Ids of the pages recently replaced from T2, least recent first. */
+  protected LinkedHashSet<Integer> b2;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an ARC replacer with empty lists.
+   */
+  public ARC(BufMgr bufmgr) {
+
+    super(bufmgr);
+    p = 0;
+    order = new long[frametab.length];
+    b1 = new LinkedHashSet<Integer>();
+    b2 = new LinkedHashSet<Integer>();
+    for (int i = 0; i < frametab.length; i++) {
+      frametab[i].state = NONE;
+    }
+
+  } // public ARC(BufMgr bufmgr)
+
+  /**
+   * Puts the page in T2 if it was in a ghost list, adapting the target size
+   * of T1 in favor of that list, or in T1 otherwise.
+   */
+  public void newPage(FrameDesc fdesc) {
+
+    int c = frametab.length;
+    Integer pid = fdesc.pageno.pid;
+    if (b1.contains(pid)) {
+      p = Math.min(c, p + Math.max(1, b2.size() / b1.size()));
+      b1.remove(pid);
+      fdesc.state = T2;
+    } else if (b2.contains(pid)) {
+      p = Math.max(0, p - Math.max(1, b1.size() / b2.size()));
+      b2.remove(pid);
+      fdesc.state = T2;
+    } else {
+      fdesc.state = T1;
+    }
+    forgetReference(fdesc);
+    order[fdesc.index] = time.incrementAndGet();
+
+    // keep T1 and B1 to c pages, and all four lists to twice that
+    int t1 = count(T1);
+    while (!b1.isEmpty() && t1 + b1.size() > c) {
+      removeOldest(b1);
+    }
+    int t2 = count(T2);
+    while (t1 + t2 + b1.size() + b2.size() > 2 * c) {
+      removeOldest(b2.isEmpty() ? b1 : b2);
+    }
+
+  } // public void newPage(FrameDesc fdesc)
+
+  public void freePage(FrameDesc fdesc) {
+    forgetReference(fdesc);
+    fdesc.state = NONE;
+  }
+
+  public void pinPage(FrameDesc fdesc) {
+    reference(fdesc);
+  }
+
+  /**
+   * Moves the page to the end of T2.
+   */
+  protected void applyReference(FrameDesc fdesc, long when) {
+    fdesc.state = T2;
+    order[fdesc.index] = when;
+  }
+
+  public void unpinPage(FrameDesc fdesc) {
+    // only pins count as references
+  }
+
+  /**
+   * Picks the least recently used unpinned page of T1 if it is larger than
+   * its target size, or of T2 otherwise (or of the other list, if every page
+   * in one is pinned), and remembers it in the matching ghost list.
+   */
+  public int pickVictim() {
+
+    applyReferences();
+    int victim = pickEmpty();
+    if (victim >= 0) {
+      return victim;
+    }
+
+    // another thread may pin the chosen page before it is claimed
+    int t1 = count(T1);
+    for (int tries = 0; victim < 0; tries++) {
+      if (t1 > 0 && t1 > p) {
+        victim = pickOldest(T1);
+        if (victim < 0) {
+          victim = pickOldest(T2);
+        }
+      } else {
+        victim = pickOldest(T2);
+        if (victim < 0) {
+          victim = pickOldest(T1);
+        }
+      }
+      if (victim < 0 || tries == frametab.length) {
+        return -1;
+      }
+      if (!claim(frametab[victim])) {
+        victim = -1;
+      }
+    }
+
+    Integer pid = frametab[victim].pageno.pid;
+    if (frametab[victim].state == T1) {
+      b1.add(pid);
+    } else {
+      b2.add(pid);
+    }
+    frametab[victim].state = NONE;
+    return victim;
+
+  } // public int pickVictim()
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the number of frames in the given list.
+   */
+  protected int count(int list) {
+
+    int count = 0;
+    for (int i = 0; i < frametab.length; i++) {
+      if (frametab[i].state == list) {
+        count++;
+      }
+    }
+    return count;
+
+  } // protected int count(int list)
+
+  /**
+   * Gets the index of the least recently used unpinned frame in the given
+   * list, or -1 if there is none.
+   */
+  protected int pickOldest(int list) {
+
+    int victim = -1;
+    for (int i = 0; i < frametab.length; i++) {
+      if (frametab[i].state == list && frametab[i].pincnt.get() == 0
+          && (victim < 0 || order[i] < order[victim])) {
+        victim = i;
+      }
+    }
+    return victim;
+
+  } // protected int pickOldest(int list)
+
+  /**
+   * Removes the least recent page id from the given ghost list.
+   */
+  protected static void removeOldest(LinkedHashSet<Integer> ghosts) {
+    Iterator<Integer> oldest = ghosts.iterator();
+    oldest.next();
+    oldest.remove();
+  }
+
+} // class ARC extends Replacer
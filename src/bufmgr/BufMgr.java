@@ -0,0 +1,905 @@
+package bufmgr;
+
+import diskmgr.Extent;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h3>Minibase Buffer Manager</h3>
+ * The buffer manager reads disk pages into a main memory page as needed. The
+ * collection of main memory pages (called frames) used by the buffer manager
+ * for this purpose is called the buffer pool. This is just an array of Page
+ * objects. The buffer manager is used by access methods, heap files, and
+ * relational operators to read, write, allocate, and de-allocate pages.
+ * <br><br>
+ * The frame to replace when a page is read in is chosen by one of several
+ * replacement policies (i.e. CLOCK, LRU_K, TWO_Q or ARC), given when the
+ * buffer manager is constructed.
+ * <br><br>
+ * The buffer manager may be used by many threads.  Pinning and unpinning a
+ * page that is in the buffer pool takes no locks: its frame is found in a
+ * lock-free page table, and its pin count is changed atomically.  Choosing
+ * frames for pages, allocating and freeing them (i.e. everything that
+ * changes which pages are in the pool) is done one thread at a time, but
+ * pages are read from disk without locking, so that many threads may wait
+ * on reads at once.  The replacement policies are told about hits without locking, so
+ * their view of recent use is approximate.
+ * <br><br>
+ * Pages pinned with the ACCESS_ONCE hint (e.g. by maintenance scans of whole
+ * files) are read into a small ring of frames, which are reused for the
+ * next such pages rather than replacing pages in the rest of the pool, and
+ * don't count as references to pages that are already in the pool.
+ * <br><br>
+ * A background thread may also write dirty pages (see setBackgroundFlush),
+ * so that replacing pages rarely has to write them first, and other threads
+ * may read pages ahead of their use (see readAhead).
+ */
+public class BufMgr implements GlobalConst {
+
+  /** Replacement policy: the "clock" approximation of LRU. */
+  public static final int CLOCK = 0;
+
+  /** Replacement policy: LRU-K, with K = 2. */
+  public static final int LRU_K = 1;
+
+  /** Replacement policy: 2Q, which keeps pages used once in a FIFO queue. */
+  public static final int TWO_Q = 2;
+
+  /** Replacement policy: the Adaptive Replacement Cache. */
+  public static final int ARC = 3;
+
+  /** Fraction of the frames (i.e. 1 / RING_FRACTION) in the ring. */
+  protected static final int RING_FRACTION = 16;
+
+  /** Percentage of dirty frames above which the background flusher writes. */
+  protected static final int HIGH_WATERMARK = 25;
+
+  /** Percentage of dirty frames the background flusher writes down to. */
+  protected static final int LOW_WATERMARK = 10;
+
+  /** Largest number of pages the background flusher writes at once. */
+  protected static final int FLUSH_BATCH = 32;
+
+  /** Time between checks of the background flusher, in milliseconds. */
+  protected static final int FLUSH_INTERVAL = 100;
+
+  // --------------------------------------------------------------------------
+
+  /** Actual pool of pages (can be viewed as an array of byte arrays). */
+  protected Page[] bufpool;
+
+  /** Array of descriptors, each containing the pin count, dirty status, etc. */
+  protected FrameDesc[] frametab;
+
+  /** Maps current page numbers to frames; used for efficient lookups. */
+  protected PageTable pagemap;
+
+  /** The replacement policy to use. */
+  protected Replacer replacer;
+
+  /** Frames last used for ACCESS_ONCE pages, or -1 for none. */
+  protected int[] ring;
+
+  /** Position in the ring of the last frame used. */
+  protected int ringpos;
+
+  /** Number of dirty frames, as of the last count (plus those dirtied since). */
+  protected final AtomicInteger dirtycnt = new AtomicInteger();
+
+  /** Held while writing many pages, so that flushes wait for each other. */
+  protected final Object flushLock = new Object();
+
+  /** The background flusher, or null if not running. */
+  protected Flusher flusher;
+
+  /** True if pages may be read ahead; false while the database is closed. */
+  protected boolean readahead;
+
+  /** Number of pages being read ahead. */
+  protected int reading;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a buffer manager with the given number of frames, which
+   * replaces pages with the clock policy.
+   */
+  public BufMgr(int numbufs) {
+    this(numbufs, CLOCK);
+  }
+
+  /**
+   * Constructs a buffer manager with the given number of frames, which
+   * replaces pages with the given policy.
+   *
+   * @throws IllegalArgumentException if the policy is invalid
+   */
+  public BufMgr(int numbufs, int policy) {
+
+    // initialize the buffer pool and frame table
+    bufpool = new Page[numbufs];
+    frametab = new FrameDesc[numbufs];
+    for (int i = 0; i < numbufs; i++) {
+      bufpool[i] = new Page();
+      frametab[i] = new FrameDesc(i);
+    }
+
+    // initialize the specialized page map and replacer
+    pagemap = new PageTable(numbufs);
+    switch (policy) {
+      case CLOCK:
+        replacer = new Clock(this);
+        break;
+      case LRU_K:
+        replacer = new LRUK(this);
+        break;
+      case TWO_Q:
+        replacer = new TwoQ(this);
+        break;
+      case ARC:
+        replacer = new ARC(this);
+        break;
+      default:
+        throw new IllegalArgumentException("Invalid replacement policy");
+    }
+
+    // initialize the ring of frames for pages used once
+    ring = new int[Math.max(2, numbufs / RING_FRACTION)];
+    for (int i = 0; i < ring.length; i++) {
+      ring[i] = -1;
+    }
+    ringpos = 0;
+    readahead = true;
+    reading = 0;
+
+  } // public BufMgr(int numbufs, int policy)
+
+  /**
+   * Allocates a set of new pages, and pins the first one in an appropriate
+   * frame in the buffer pool.
+   *
+   * @param firstpg holds the contents of the first page
+   * @param run_size number of pages to allocate
+   * @return page id of the first new page
+   * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public synchronized PageId newPage(Page firstpg, int run_size) {
+
+    // allocate the run, and pin the first page
+    PageId firstid = Minibase.DiskManager.allocate_page(run_size);
+    pinNewPage(firstid, firstpg, run_size);
+    return firstid;
+
+  } // public synchronized PageId newPage(Page firstpg, int run_size)
+
+  /**
+   * Allocates the next page of the given extent, and pins it in an
+   * appropriate frame in the buffer pool.
+   *
+   * @param firstpg holds the contents of the page
+   * @return page id of the new page
+   * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public synchronized PageId newPage(Page firstpg, Extent extent) {
+
+    PageId pageno = Minibase.DiskManager.allocate_page(extent);
+    pinNewPage(pageno, firstpg, 1);
+    return pageno;
+
+  } // public synchronized PageId newPage(Page firstpg, Extent extent)
+
+  /**
+   * Deallocates a single page from disk, freeing it from the pool if needed.
+   *
+   * @param pageno identifies the page to remove
+   * @throws IllegalArgumentException if the page is pinned
+   */
+  public synchronized void freePage(PageId pageno) {
+
+    // if the page is in the buffer pool, remove it
+    int frameNo;
+    while ((frameNo = pagemap.get(pageno.pid)) >= 0) {
+
+      // make sure the page is not pinned (nor pinned meanwhile)
+      FrameDesc fdesc = frametab[frameNo];
+      if (Replacer.claim(fdesc)) {
+
+        // remove the page from the buffer pool
+        pagemap.remove(pageno.pid);
+        emptyFrame(fdesc);
+        break;
+      }
+      if (fdesc.pincnt.get() > 0) {
+        throw new IllegalArgumentException("Page currently pinned");
+      }
+
+      // the frame is claimed while the page is read in or written out
+      try {
+        wait(1);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+
+    } // while
+
+    // deallocate the page from disk
+    Minibase.DiskManager.deallocate_page(pageno);
+
+  } // public synchronized void freePage(PageId pageno)
+
+  /**
+   * Pins a disk page into the buffer pool. If the page is already pinned, this
+   * simply increments the pin count. Otherwise, this selects another page in
+   * the pool to replace, flushing it to disk if dirty.
+   *
+   * @param pageno identifies the page to pin
+   * @param mempage shares the pinned page; its contents depend on the
+   * contents parameter
+   * @param contents PIN_DISKIO to read the page from disk, PIN_MEMCPY to
+   * copy mempage into the frame, or PIN_NOOP to leave the frame as is
+   * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned,
+   * or if contents is invalid
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public void pinPage(PageId pageno, Page mempage, int contents) {
+    pinPage(pageno, mempage, contents, ACCESS_RANDOM);
+  }
+
+  /**
+   * Pins a disk page into the buffer pool, as above, given a hint of how the
+   * page will be used: ACCESS_RANDOM if it may be used again soon, or
+   * ACCESS_ONCE if it is only used once (and should replace other such pages
+   * rather than the rest of the pool).
+   *
+   * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned,
+   * or if contents or hint is invalid
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public void pinPage(PageId pageno, Page mempage, int contents, int hint) {
+
+    if (hint != ACCESS_RANDOM && hint != ACCESS_ONCE) {
+      throw new IllegalArgumentException("Illegal parameter value for hint");
+    }
+
+    // first try to pin the page without locking, if it's in the pool
+    int pid = pageno.pid;
+    if (contents != PIN_MEMCPY && pinResident(pid, mempage, hint)) {
+      return;
+    }
+    pinMissing(pid, mempage, contents, hint);
+
+  } // public void pinPage(PageId pageno, Page mempage, int contents, int hint)
+
+  /**
+   * Reads a disk page into the buffer pool ahead of its use (e.g. by another
+   * thread), unless it is there already, and copies its contents; the page
+   * is not pinned, so the copy may be changed meanwhile (i.e. it is only a
+   * hint, such as to the pages to read ahead next).  Pages already in the
+   * pool are neither read nor copied (nor locked for).
+   *
+   * @param pageno identifies the page to read
+   * @param copy receives a copy of the page, if it is read
+   * @param hint ACCESS_RANDOM or ACCESS_ONCE, as for pinPage
+   * @return true if the page was read and copied, false if it was in the
+   * pool already (or being read in), or if all pages are pinned (or reading
+   * ahead is disabled)
+   * @throws IllegalArgumentException if the page is invalid
+   */
+  public boolean readAhead(PageId pageno, Page copy, int hint) {
+
+    // look for the page without locking first, as it's usually there
+    int pid = pageno.pid;
+    if (pagemap.get(pid) >= 0) {
+      return false;
+    }
+
+    // claim a frame for it, unless it was read in meanwhile
+    FrameDesc fdesc;
+    synchronized (this) {
+      if (!readahead || pagemap.get(pid) >= 0) {
+        return false;
+      }
+      try {
+        fdesc = claimFrame(pid, copy, PIN_DISKIO, hint);
+      } catch (IllegalStateException exc) {
+        return false;
+      }
+      reading++;
+    }
+
+    // read in the page (leaving the frame empty if that fails), and publish
+    // it unpinned
+    try {
+      Minibase.DiskManager.read_page(pageno, bufpool[fdesc.index]);
+    } catch (RuntimeException exc) {
+      synchronized (this) {
+        pagemap.remove(pid);
+        emptyFrame(fdesc);
+        doneReading();
+      }
+      throw exc;
+    }
+    copy.copyPage(bufpool[fdesc.index]);
+    fdesc.pincnt.set(0);
+    replacer.unpinPage(fdesc);
+    synchronized (this) {
+      doneReading();
+    }
+    return true;
+
+  } // public boolean readAhead(PageId pageno, Page copy, int hint)
+
+  /**
+   * True if the given page is in the buffer pool (or being read into it);
+   * false otherwise.  Looks the page up without locking, so the answer is
+   * only a hint: the page may be read in or replaced right after.
+   */
+  public boolean isResident(PageId pageno) {
+    return (pagemap.get(pageno.pid) >= 0);
+  }
+
+  /**
+   * Unpins a disk page from the buffer pool, decreasing its pin count.
+   *
+   * @param pageno identifies the page to unpin
+   * @param dirty UNPIN_DIRTY if the page was modified, UNPIN_CLEAN otherwise
+   * @throws IllegalArgumentException if the page is not present or not pinned
+   */
+  public void unpinPage(PageId pageno, boolean dirty) {
+
+    // find the frame (which can't change while the page is pinned)
+    int frameNo = pagemap.get(pageno.pid);
+    if (frameNo < 0) {
+      throw new IllegalArgumentException("Page not in buffer pool");
+    }
+    FrameDesc fdesc = frametab[frameNo];
+
+    // update the dirty status before the page can be replaced (counting
+    // the frames dirtied, for the background flusher)
+    if (dirty && !fdesc.dirty) {
+      fdesc.dirty = true;
+      Flusher flusher = this.flusher;
+      if (flusher != null) {
+        flusher.dirtied();
+      }
+    }
+
+    // make sure the page is pinned, and unpin it
+    while (true) {
+      int pincnt = fdesc.pincnt.get();
+      if (pincnt <= 0 || fdesc.pageno.pid != pageno.pid) {
+        throw new IllegalArgumentException("Page not pinned");
+      }
+      if (fdesc.pincnt.compareAndSet(pincnt, pincnt - 1)) {
+        break;
+      }
+    }
+
+    // notify the replacer
+    replacer.unpinPage(fdesc);
+
+  } // public void unpinPage(PageId pageno, boolean dirty)
+
+  /**
+   * Immediately writes a page in the buffer pool to disk, if dirty.
+   *
+   * @throws IllegalArgumentException if the page is not in the buffer pool
+   */
+  public synchronized void flushPage(PageId pageno) {
+
+    int frameNo = pagemap.get(pageno.pid);
+    if (frameNo < 0) {
+      throw new IllegalArgumentException("Page " + pageno.pid
+          + " not in buffer pool");
+    }
+    synchronized (flushLock) {
+      flushFrame(frametab[frameNo]);
+    }
+
+  } // public synchronized void flushPage(PageId pageno)
+
+  /**
+   * Immediately writes all unpinned dirty pages in the buffer pool to disk,
+   * in one batch (forcing them onto disk, if the file is memory-mapped).
+   * Pinned pages may be changing, so they are left dirty, to be written once
+   * unpinned.
+   */
+  public synchronized void flushAllFrames() {
+
+    // after any pages being written in the background, claim the dirty
+    // pages (so that none is pinned and changed while written), clearing
+    // their dirty status first
+    synchronized (flushLock) {
+      FrameDesc[] batch = new FrameDesc[frametab.length];
+      PageId[] pagenos = new PageId[frametab.length];
+      Page[] pages = new Page[frametab.length];
+      int count = 0;
+      for (FrameDesc fdesc : frametab) {
+        if (fdesc.pageno.pid != INVALID_PAGEID && fdesc.dirty
+            && Replacer.claim(fdesc)) {
+          if (fdesc.dirty) {
+            fdesc.dirty = false;
+            batch[count] = fdesc;
+            pagenos[count] = fdesc.pageno;
+            pages[count++] = bufpool[fdesc.index];
+          } else {
+            fdesc.pincnt.set(0);
+          }
+        }
+      }
+
+      // and write them in order, releasing the claims
+      try {
+        Minibase.DiskManager.write_pages(Arrays.copyOf(pagenos, count),
+            Arrays.copyOf(pages, count));
+        Minibase.DiskManager.flush();
+      } finally {
+        for (int i = 0; i < count; i++) {
+          batch[i].pincnt.set(0);
+        }
+      }
+    }
+
+  } // public synchronized void flushAllFrames()
+
+  /**
+   * Starts (or stops) writing dirty pages in the background: whenever more
+   * than HIGH_WATERMARK percent of the frames are dirty, a thread writes the
+   * unpinned ones in order of page id, in batches, until LOW_WATERMARK
+   * percent are.  Each frame is claimed while it is written, so that its
+   * page is neither changed nor replaced meanwhile.  Stopping waits for the
+   * thread to finish.
+   */
+  public void setBackgroundFlush(boolean enabled) {
+
+    Flusher stopped = null;
+    synchronized (this) {
+      if (enabled && flusher == null) {
+        flusher = new Flusher();
+        flusher.start();
+      } else if (!enabled && flusher != null) {
+        stopped = flusher;
+        flusher = null;
+      }
+    }
+
+    // the thread may need the lock to finish
+    if (stopped != null) {
+      stopped.finish();
+    }
+
+  } // public void setBackgroundFlush(boolean enabled)
+
+  /**
+   * Allows (or disallows) reading pages ahead, e.g. while the database is
+   * closed; disallowing waits for the pages being read ahead.
+   */
+  public synchronized void setReadAhead(boolean enabled) {
+
+    readahead = enabled;
+    while (!enabled && reading > 0) {
+      try {
+        wait();
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+
+  } // public synchronized void setReadAhead(boolean enabled)
+
+  /**
+   * True if dirty pages are written in the background; false otherwise.
+   */
+  public boolean isBackgroundFlush() {
+    return (flusher != null);
+  }
+
+  /**
+   * Gets the total number of buffer frames.
+   */
+  public int getNumFrames() {
+    return bufpool.length;
+  }
+
+  /**
+   * Gets the total number of unpinned buffer frames (including those being
+   * read in or written out in the background).
+   */
+  public int getNumUnpinned() {
+
+    int cnt = 0;
+    for (FrameDesc fdesc : frametab) {
+      if (fdesc.pincnt.get() <= 0) {
+        cnt++;
+      }
+    }
+    return cnt;
+
+  } // public int getNumUnpinned()
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Pins the first page of a run just allocated, deallocating the run if
+   * that fails.
+   */
+  protected void pinNewPage(PageId firstid, Page firstpg, int run_size) {
+
+    // try to pin the first page
+    try {
+      pinPage(firstid, firstpg, PIN_MEMCPY, ACCESS_RANDOM);
+    } catch (RuntimeException exc) {
+
+      // roll back because pin failed, and re-throw the exception
+      Minibase.DiskManager.deallocate_page(firstid, run_size);
+      throw exc;
+    }
+
+  } // protected void pinNewPage(PageId firstid, Page firstpg, int run_size)
+
+  /**
+   * Pins the given page if it is in the buffer pool, without locking.
+   *
+   * @return true if the page was pinned, false if it must be read in
+   */
+  protected boolean pinResident(int pid, Page mempage, int hint) {
+
+    int frameNo = pagemap.get(pid);
+    if (frameNo < 0) {
+      return false;
+    }
+
+    // increment the pin count, unless the frame is claimed for another page
+    FrameDesc fdesc = frametab[frameNo];
+    int pincnt;
+    do {
+      pincnt = fdesc.pincnt.get();
+      if (pincnt < 0) {
+        return false;
+      }
+    } while (!fdesc.pincnt.compareAndSet(pincnt, pincnt + 1));
+
+    // the frame may have been given to another page after the lookup
+    if (fdesc.pageno.pid != pid) {
+      fdesc.pincnt.decrementAndGet();
+      return false;
+    }
+
+    // notify the replacer (unless used once, which keeps the page in the
+    // ring), and wrap the buffer
+    if (hint != ACCESS_ONCE) {
+      fdesc.once = false;
+      replacer.pinPage(fdesc);
+    }
+    mempage.setPage(bufpool[frameNo]);
+    return true;
+
+  } // protected boolean pinResident(int pid, Page mempage, int hint)
+
+  /**
+   * Pins the given page, reading it into a frame if it is not in the buffer
+   * pool (see pinPage).  The page is read from disk without locking, so that
+   * other pages can be read in meanwhile; the frame stays claimed until then,
+   * and threads pinning the same page wait for it.
+   */
+  protected void pinMissing(int pid, Page mempage, int contents, int hint) {
+
+    FrameDesc fdesc;
+    while (true) {
+      synchronized (this) {
+
+        // claim a frame for the page, unless another thread has read it in
+        int frameNo = pagemap.get(pid);
+        if (frameNo < 0) {
+          fdesc = claimFrame(pid, mempage, contents, hint);
+          if (contents != PIN_DISKIO) {
+            return;
+          }
+          break;
+        }
+
+        // copying into the frame requires it to be unpinned
+        if (contents == PIN_MEMCPY) {
+          fdesc = frametab[frameNo];
+          if (fdesc.pincnt.compareAndSet(0, 1)) {
+            bufpool[frameNo].copyPage(mempage);
+            fdesc.once = false;
+            replacer.pinPage(fdesc);
+            mempage.setPage(bufpool[frameNo]);
+            return;
+          }
+          if (fdesc.pincnt.get() > 0) {
+            throw new IllegalArgumentException(
+                "Page pinned; PIN_MEMCPY not allowed");
+          }
+        } else if (pinResident(pid, mempage, hint)) {
+          return;
+        }
+      }
+
+      // another thread is still reading the page in (or writing it out)
+      Thread.yield();
+    }
+
+    // read in the page (leaving the frame empty if that fails), wrap the
+    // buffer, and publish the page (setting the pin count releases the claim)
+    try {
+      Minibase.DiskManager.read_page(new PageId(pid), bufpool[fdesc.index]);
+    } catch (RuntimeException exc) {
+      synchronized (this) {
+        pagemap.remove(pid);
+        emptyFrame(fdesc);
+      }
+      throw exc;
+    }
+    mempage.setPage(bufpool[fdesc.index]);
+    fdesc.pincnt.set(1);
+
+  } // protected void pinMissing(int pid, Page mempage, int contents, int hint)
+
+  /**
+   * Selects and claims a frame for the given page, which is not in the buffer
+   * pool, writing the page it replaces to disk if dirty.  Unless the page is
+   * to be read from disk, this also fills the frame and pins the page;
+   * otherwise the frame is added to the page table but stays claimed.
+   */
+  protected FrameDesc claimFrame(int pid, Page mempage, int contents,
+      int hint) {
+
+    // select and claim an available frame
+    int frameNo = (hint == ACCESS_ONCE) ? pickRingFrame()
+        : replacer.pickVictim();
+    if (frameNo < 0) {
+      throw new IllegalStateException("Buffer pool exceeded");
+    }
+    FrameDesc fdesc = frametab[frameNo];
+
+    // if the frame was in use and dirty, write it to disk (before releasing
+    // the lock, so that no thread reads the old page meanwhile)
+    if (fdesc.pageno.pid != INVALID_PAGEID) {
+      pagemap.remove(fdesc.pageno.pid);
+      if (fdesc.dirty) {
+        Minibase.DiskManager.write_page(fdesc.pageno, bufpool[frameNo]);
+      }
+    }
+
+    // fill the frame if requested (leaving it empty if that fails)
+    try {
+      if (contents == PIN_MEMCPY) {
+        bufpool[frameNo].copyPage(mempage);
+      } else if (contents != PIN_DISKIO && contents != PIN_NOOP) {
+        throw new IllegalArgumentException(
+            "Illegal parameter value for contents");
+      }
+    } catch (RuntimeException exc) {
+      emptyFrame(fdesc);
+      throw exc;
+    }
+
+    // update the frame descriptor, notify the replacer, and add the page
+    fdesc.pageno.pid = pid;
+    fdesc.dirty = false;
+    fdesc.once = (hint == ACCESS_ONCE);
+    replacer.newPage(fdesc);
+    pagemap.put(pid, frameNo);
+    if (contents != PIN_DISKIO) {
+      mempage.setPage(bufpool[frameNo]);
+      fdesc.pincnt.set(1);
+    }
+    return fdesc;
+
+  } // protected FrameDesc claimFrame(int pid, Page mempage, int contents, int hint)
+
+  /**
+   * Empties the given claimed frame, whose page is not in the page table,
+   * and releases the claim.
+   */
+  protected void emptyFrame(FrameDesc fdesc) {
+    fdesc.pageno.pid = INVALID_PAGEID;
+    fdesc.dirty = false;
+    fdesc.once = false;
+    replacer.freePage(fdesc);
+    fdesc.pincnt.set(0);
+  }
+
+  /**
+   * Counts a page read ahead as done, waking setReadAhead if it was the last
+   * one; called while locked.
+   */
+  protected void doneReading() {
+    if (--reading == 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Selects and claims a frame for a page used once: the next frame in the
+   * ring, if it still holds such a page (or none, if the page was freed) and
+   * is unpinned, or a new victim (which takes its place in the ring)
+   * otherwise.
+   */
+  protected int pickRingFrame() {
+
+    ringpos = (ringpos + 1) % ring.length;
+    int frameNo = ring[ringpos];
+    if (frameNo >= 0
+        && (frametab[frameNo].once || frametab[frameNo].pageno.pid == INVALID_PAGEID)
+        && Replacer.claim(frametab[frameNo])) {
+      return frameNo;
+    }
+    frameNo = replacer.pickVictim();
+    ring[ringpos] = frameNo;
+    return frameNo;
+
+  } // protected int pickRingFrame()
+
+  /**
+   * Writes unpinned dirty pages, in order of page id, until at most
+   * LOW_WATERMARK percent of the frames are dirty (if more than
+   * HIGH_WATERMARK percent are).
+   */
+  protected void flushDirty() {
+
+    // count the dirty frames
+    int count = 0;
+    for (FrameDesc fdesc : frametab) {
+      if (fdesc.dirty) {
+        count++;
+      }
+    }
+    dirtycnt.set(count);
+    if (count * 100 <= frametab.length * HIGH_WATERMARK) {
+      return;
+    }
+
+    // find the unpinned ones, in order of page id
+    long[] order = new long[count];
+    int found = 0;
+    for (FrameDesc fdesc : frametab) {
+      int pid = fdesc.pageno.pid;
+      if (fdesc.dirty && fdesc.pincnt.get() == 0 && pid != INVALID_PAGEID
+          && found < count) {
+        order[found++] = ((long) pid << 32) | fdesc.index;
+      }
+    }
+    Arrays.sort(order, 0, found);
+
+    // write them in batches, claiming each frame first
+    int excess = count - frametab.length * LOW_WATERMARK / 100;
+    for (int start = 0; start < found && excess > 0; start += FLUSH_BATCH) {
+
+      FrameDesc[] batch = new FrameDesc[FLUSH_BATCH];
+      PageId[] pagenos = new PageId[FLUSH_BATCH];
+      Page[] pages = new Page[FLUSH_BATCH];
+      int size = 0;
+      synchronized (flushLock) {
+        for (int i = start; i < found && i < start + FLUSH_BATCH; i++) {
+          FrameDesc fdesc = frametab[(int) order[i]];
+          if (Replacer.claim(fdesc)) {
+            if (fdesc.dirty && fdesc.pageno.pid == (int) (order[i] >> 32)) {
+              fdesc.dirty = false;
+              batch[size] = fdesc;
+              pagenos[size] = new PageId(fdesc.pageno.pid);
+              pages[size++] = bufpool[fdesc.index];
+            } else {
+              fdesc.pincnt.set(0);
+            }
+          }
+        }
+        try {
+          Minibase.DiskManager.write_pages(Arrays.copyOf(pagenos, size),
+              Arrays.copyOf(pages, size));
+        } finally {
+          for (int i = 0; i < size; i++) {
+            batch[i].pincnt.set(0);
+          }
+        }
+      }
+      dirtycnt.addAndGet(-size);
+      excess -= size;
+
+    } // for
+
+  } // protected void flushDirty()
+
+  /**
+   * Writes the page in the given frame to disk, if dirty.  The dirty status
+   * is cleared first, so that changes made meanwhile aren't lost.
+   */
+  protected void flushFrame(FrameDesc fdesc) {
+
+    if (fdesc.dirty) {
+      fdesc.dirty = false;
+      Minibase.DiskManager.write_page(fdesc.pageno, bufpool[fdesc.index]);
+    }
+
+  } // protected void flushFrame(FrameDesc fdesc)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * The background flusher: checks the dirty frames every FLUSH_INTERVAL
+   * milliseconds, or as soon as they are over HIGH_WATERMARK percent.
+   */
+  protected class Flusher extends Thread {
+
+    /** True until the flusher is to finish. */
+    protected volatile boolean running;
+
+    /**
+     * True once too many frames are dirty, until the flusher next checks
+     * them (so that it is only woken once meanwhile).
+     */
+    protected final AtomicBoolean woken = new AtomicBoolean();
+
+    /**
+     * Constructs a flusher (as a daemon, so that it doesn't keep the
+     * program running).
+     */
+    public Flusher() {
+      super("BufMgr flusher");
+      setDaemon(true);
+      running = true;
+    }
+
+    public void run() {
+
+      while (running) {
+        synchronized (this) {
+          try {
+            if (!woken.get()) {
+              wait(FLUSH_INTERVAL);
+            }
+          } catch (InterruptedException exc) {
+            // check whether still running
+          }
+        }
+        woken.set(false);
+        if (running) {
+          flushDirty();
+        }
+      }
+
+    } // public void run()
+
+    /**
+     * Counts a frame just dirtied, waking the flusher if there are too many
+     * (unless it has been woken already).  The count may pass the watermark
+     * without reaching it, as the flusher recounts the dirty frames.
+     */
+    public void dirtied() {
+      if (dirtycnt.incrementAndGet() > frametab.length * HIGH_WATERMARK / 100
+          && woken.compareAndSet(false, true)) {
+        synchronized (this) {
+          notify();
+        }
+      }
+    }
+
+    /**
+     * Stops the flusher, and waits for it to finish.
+     */
+    public void finish() {
+
+      running = false;
+      interrupt();
+      try {
+        join();
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+
+    } // public void finish()
+
+  } // protected class Flusher extends Thread
+
+} // public class BufMgr implements GlobalConst
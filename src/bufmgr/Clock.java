@@ -0,0 +1,74 @@
+package bufmgr;
+
+/**
+ * The "clock" replacement policy: the frames form a circle, and a hand sweeps
+ * around it giving each referenced frame a second chance before choosing it.
+ */
+class Clock extends Replacer {
+
+  /** Frame state: unpinned and not referenced since the hand passed it. */
+  protected static final int AVAILABLE = 10;
+
+  /** Frame state: unpinned, but referenced since the hand passed it. */
+  protected static final int REFERENCED = 11;
+
+  /** Frame state: pinned. */
+  protected static final int PINNED = 12;
+
+  // --------------------------------------------------------------------------
+
+  /** Index of the frame the hand points to. */
+  protected int head;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a clock with every frame available.
+   */
+  public Clock(BufMgr bufmgr) {
+
+    super(bufmgr);
+    for (int i = 0; i < frametab.length; i++) {
+      frametab[i].state = AVAILABLE;
+    }
+    head = -1;
+
+  } // public Clock(BufMgr bufmgr)
+
+  public void newPage(FrameDesc fdesc) {
+    fdesc.state = PINNED;
+  }
+
+  public void freePage(FrameDesc fdesc) {
+    fdesc.state = AVAILABLE;
+  }
+
+  public void pinPage(FrameDesc fdesc) {
+    fdesc.state = PINNED;
+  }
+
+  public void unpinPage(FrameDesc fdesc) {
+    if (fdesc.pincnt.get() == 0) {
+      fdesc.state = REFERENCED;
+    }
+  }
+
+  /**
+   * Sweeps the hand around (at most twice) for an available frame, clearing
+   * the referenced frames it passes on the way.
+   */
+  public int pickVictim() {
+
+    for (int count = 0; count < 2 * frametab.length; count++) {
+      head = (head + 1) % frametab.length;
+      if (frametab[head].state == REFERENCED) {
+        frametab[head].state = AVAILABLE;
+      } else if (frametab[head].state == AVAILABLE && claim(frametab[head])) {
+        return head;
+      }
+    }
+    return -1;
+
+  } // public int pickVictim()
+
+} // class Clock extends Replacer
@@ -0,0 +1,48 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.PageId;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A frame description holds the state of one frame in the buffer pool: which
+ * page is in it, how many times the page is pinned, and if it is dirty.  The
+ * pin count is -1 while the frame is claimed for another page (see
+ * Replacer.claim), so that it can't be pinned meanwhile.
+ */
+class FrameDesc implements GlobalConst {
+
+  /** Index of the frame in the buffer pool. */
+  protected int index;
+
+  /** Id of the page in the frame, or an invalid id if the frame is empty. */
+  protected PageId pageno;
+
+  /** Number of times the page is pinned. */
+  protected final AtomicInteger pincnt;
+
+  /** True if the page has changed since it was read; false otherwise. */
+  protected volatile boolean dirty;
+
+  /** True if the page has only been pinned with ACCESS_ONCE; false otherwise. */
+  protected volatile boolean once;
+
+  /** State of the frame, as kept by the replacement policy. */
+  protected int state;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty frame description.
+   */
+  public FrameDesc(int index) {
+    this.index = index;
+    pageno = new PageId();
+    pincnt = new AtomicInteger();
+    dirty = false;
+    once = false;
+    state = 0;
+  }
+
+} // class FrameDesc implements GlobalConst
@@ -0,0 +1,93 @@
+package bufmgr;
+
+/**
+ * The LRU-K replacement policy (O'Neil, O'Neil and Weikum): the victim is the
+ * unpinned page whose K-th most recent reference is oldest, so that pages
+ * referenced only once (e.g. by a scan) are replaced before pages that are
+ * referenced repeatedly.  Pages with fewer than K references are replaced
+ * first, in LRU order.  The history of a page is kept while it is resident.
+ */
+class LRUK extends Replacer {
+
+  /** Number of references kept for each page. */
+  protected static final int K = 2;
+
+  // --------------------------------------------------------------------------
+
+  /** Times of the last K references of each frame's page, most recent first. */
+  protected long[][] history;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an LRU-K replacer with no history.
+   */
+  public LRUK(BufMgr bufmgr) {
+    super(bufmgr);
+    history = new long[frametab.length][K];
+  }
+
+  public void newPage(FrameDesc fdesc) {
+    freePage(fdesc);
+    applyReference(fdesc, time.incrementAndGet());
+  }
+
+  public void freePage(FrameDesc fdesc) {
+    forgetReference(fdesc);
+    for (int i = 0; i < K; i++) {
+      history[fdesc.index][i] = 0;
+    }
+  }
+
+  public void pinPage(FrameDesc fdesc) {
+    reference(fdesc);
+  }
+
+  /**
+   * Adds the reference to the page's history.
+   */
+  protected void applyReference(FrameDesc fdesc, long when) {
+    long[] times = history[fdesc.index];
+    System.arraycopy(times, 0, times, 1, K - 1);
+    times[0] = when;
+  }
+
+  public void unpinPage(FrameDesc fdesc) {
+    // only pins count as references
+  }
+
+  /**
+   * Picks the unpinned page with the oldest K-th reference, breaking ties
+   * (i.e. among pages with fewer than K references) by the last reference.
+   */
+  public int pickVictim() {
+
+    applyReferences();
+    int victim = pickEmpty();
+    if (victim >= 0) {
+      return victim;
+    }
+
+    // another thread may pin the chosen page before it is claimed
+    for (int tries = 0; tries < frametab.length; tries++) {
+      for (int i = 0; i < frametab.length; i++) {
+        if (frametab[i].pincnt.get() != 0) {
+          continue;
+        }
+        if (victim < 0
+            || history[i][K - 1] < history[victim][K - 1]
+            || (history[i][K - 1] == history[victim][K - 1]
+                && history[i][0] < history[victim][0])) {
+          victim = i;
+        }
+      }
+      if (victim < 0 || claim(frametab[victim])) {
+        return victim;
+      }
+      victim = -1;
+    }
+    return -1;
+
+  } // public int pickVictim()
+
+} // class LRUK extends Replacer
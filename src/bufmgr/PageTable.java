@@ -0,0 +1,161 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Maps the ids of the pages in the buffer pool to their frames, with open
+ * addressing (i.e. linear probing) on the int page ids.  Each slot holds a
+ * page id and frame number in one long, so that lookups need no locking;
+ * changes must be made by one thread at a time.
+ */
+class PageTable {
+
+  /** Page id of a slot that has never been used. */
+  protected static final int EMPTY = -1;
+
+  /** Page id of a slot whose entry has been removed. */
+  protected static final int REMOVED = -2;
+
+  // --------------------------------------------------------------------------
+
+  /** The slots; replaced (never changed) when rehashing. */
+  protected volatile AtomicLongArray slots;
+
+  /** Number of slots that are not empty (i.e. including removed ones). */
+  protected int used;
+
+  /** Number of entries in the table. */
+  protected int count;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty table for the given number of entries.
+   */
+  public PageTable(int capacity) {
+    slots = newSlots(capacity);
+  }
+
+  /**
+   * Gets the frame holding the given page, or -1 if it is not in the table.
+   */
+  public int get(int pid) {
+
+    AtomicLongArray slots = this.slots;
+    int mask = slots.length() - 1;
+    for (int i = hash(pid) & mask; ; i = (i + 1) & mask) {
+      long slot = slots.get(i);
+      int key = (int) (slot >> 32);
+      if (key == pid) {
+        return (int) slot;
+      }
+      if (key == EMPTY) {
+        return -1;
+      }
+    }
+
+  } // public int get(int pid)
+
+  /**
+   * Adds the given page, which must not be in the table, in the given frame.
+   */
+  public void put(int pid, int frame) {
+
+    // rehash once half the slots are used, so that probes stay short and
+    // every probe finds an empty slot
+    AtomicLongArray slots = this.slots;
+    if (2 * (used + 1) > slots.length()) {
+      AtomicLongArray resized = newSlots(count + 1);
+      for (int i = 0; i < slots.length(); i++) {
+        int key = (int) (slots.get(i) >> 32);
+        if (key >= 0) {
+          insert(resized, key, slots.get(i));
+        }
+      }
+      this.slots = slots = resized;
+      used = count;
+    }
+
+    if (insert(slots, pid, entry(pid, frame))) {
+      used++;
+    }
+    count++;
+
+  } // public void put(int pid, int frame)
+
+  /**
+   * Removes the given page from the table, if it's there.
+   */
+  public void remove(int pid) {
+
+    AtomicLongArray slots = this.slots;
+    int mask = slots.length() - 1;
+    for (int i = hash(pid) & mask; ; i = (i + 1) & mask) {
+      int key = (int) (slots.get(i) >> 32);
+      if (key == pid) {
+        slots.set(i, entry(REMOVED, -1));
+        count--;
+        return;
+      }
+      if (key == EMPTY) {
+        return;
+      }
+    }
+
+  } // public void remove(int pid)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Stores the given entry in the first free slot for its page id.
+   *
+   * @return true if the slot was empty, false if it was a removed one
+   */
+  protected static boolean insert(AtomicLongArray slots, int pid, long entry) {
+
+    int mask = slots.length() - 1;
+    for (int i = hash(pid) & mask; ; i = (i + 1) & mask) {
+      int key = (int) (slots.get(i) >> 32);
+      if (key < 0) {
+        slots.set(i, entry);
+        return (key == EMPTY);
+      }
+    }
+
+  } // protected static boolean insert(AtomicLongArray slots, int pid, long entry)
+
+  /**
+   * Creates empty slots for the given number of entries: a power of two, at
+   * least four times as many, so that as many entries can be removed and
+   * added again before rehashing.
+   */
+  protected static AtomicLongArray newSlots(int capacity) {
+
+    int length = 4;
+    while (length < 4 * capacity) {
+      length <<= 1;
+    }
+    AtomicLongArray slots = new AtomicLongArray(length);
+    for (int i = 0; i < length; i++) {
+      slots.set(i, entry(EMPTY, -1));
+    }
+    return slots;
+
+  } // protected static AtomicLongArray newSlots(int capacity)
+
+  /**
+   * Packs a page id and frame number into a slot.
+   */
+  protected static long entry(int pid, int frame) {
+    return ((long) pid << 32) | (frame & 0xffffffffL);
+  }
+
+  /**
+   * Scatters page ids over the slots (consecutive ids are common).
+   */
+  protected static int hash(int pid) {
+    int h = pid * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+} // class PageTable
@@ -0,0 +1,141 @@
+package bufmgr;
+
+import global.GlobalConst;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A replacement policy for the buffer pool.  The buffer manager tells the
+ * policy when pages are loaded into frames, pinned, unpinned and freed, and
+ * asks it to pick a victim frame whenever a page must be read in.
+ * <br><br>
+ * Only pinPage and unpinPage may be called without the buffer manager's
+ * lock (see BufMgr.pinResident), so they must not change state the other
+ * methods use; a policy that orders its pages by reference can record them
+ * with reference instead, and apply them in pickVictim.
+ */
+abstract class Replacer implements GlobalConst {
+
+  /** The frames of the buffer pool. */
+  protected FrameDesc[] frametab;
+
+  /** Logical time, advanced on every reference (see reference). */
+  protected AtomicLong time;
+
+  /**
+   * Time of the latest reference to each frame's page that the policy has
+   * yet to apply, or 0 if none (see applyReferences).
+   */
+  protected AtomicLongArray referenced;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a replacer for the given buffer manager's frames.
+   */
+  protected Replacer(BufMgr bufmgr) {
+    frametab = bufmgr.frametab;
+    time = new AtomicLong();
+    referenced = new AtomicLongArray(frametab.length);
+  }
+
+  /**
+   * Notifies the policy that a page has been read into the given frame and
+   * pinned.
+   */
+  public abstract void newPage(FrameDesc fdesc);
+
+  /**
+   * Notifies the policy that the given frame has been emptied (i.e. its page
+   * was freed), so that it may be chosen first.
+   */
+  public abstract void freePage(FrameDesc fdesc);
+
+  /**
+   * Notifies the policy that the page in the given frame, which was already
+   * in the buffer pool, has been pinned again.
+   */
+  public abstract void pinPage(FrameDesc fdesc);
+
+  /**
+   * Notifies the policy that the page in the given frame has been unpinned
+   * (it may still be pinned by others).
+   */
+  public abstract void unpinPage(FrameDesc fdesc);
+
+  /**
+   * Selects an unpinned frame to hold a new page, preferring empty frames,
+   * and claims it (see claim).
+   *
+   * @return the victim's frame index, or -1 if every frame is pinned
+   */
+  public abstract int pickVictim();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Claims the given frame for a new page if it is unpinned, so that no
+   * other thread can pin it until the buffer manager is done with it.
+   *
+   * @return true if the frame was claimed, false if it is pinned
+   */
+  protected static boolean claim(FrameDesc fdesc) {
+    return fdesc.pincnt.compareAndSet(0, -1);
+  }
+
+  /**
+   * Records a reference to the page in the given frame, without locking, to
+   * be applied by the next applyReferences (only the latest one counts).
+   */
+  protected void reference(FrameDesc fdesc) {
+    referenced.set(fdesc.index, time.incrementAndGet());
+  }
+
+  /**
+   * Applies the references recorded since the last call (see reference), in
+   * order of frame; called while locked, i.e. from pickVictim.
+   */
+  protected void applyReferences() {
+
+    for (int i = 0; i < frametab.length; i++) {
+      long when = referenced.getAndSet(i, 0);
+      if (when != 0) {
+        applyReference(frametab[i], when);
+      }
+    }
+
+  } // protected void applyReferences()
+
+  /**
+   * Applies a reference to the page in the given frame, made at the given
+   * time (see reference); does nothing unless overridden.
+   */
+  protected void applyReference(FrameDesc fdesc, long when) {
+  }
+
+  /**
+   * Forgets any reference recorded for the given frame's previous page;
+   * called when a frame is filled or emptied (while it is claimed, so that
+   * no new reference can be recorded meanwhile).
+   */
+  protected void forgetReference(FrameDesc fdesc) {
+    referenced.set(fdesc.index, 0);
+  }
+
+  /**
+   * Claims an empty frame, returning its index, or -1 if every frame is in
+   * use.
+   */
+  protected int pickEmpty() {
+
+    for (int i = 0; i < frametab.length; i++) {
+      if (frametab[i].pageno.pid == INVALID_PAGEID && claim(frametab[i])) {
+        return i;
+      }
+    }
+    return -1;
+
+  } // protected int pickEmpty()
+
+} // abstract class Replacer implements GlobalConst
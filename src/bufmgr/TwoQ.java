@@ -0,0 +1,158 @@
+package bufmgr;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The 2Q replacement policy (Johnson and Shasha): pages read for the first
+ * time enter a FIFO queue (A1in), and only pages referenced again after
+ * leaving it, which is remembered in a queue of page ids (A1out), enter the
+ * main LRU queue (Am).  Pages that are used once, such as those of a scan,
+ * therefore never displace the pages in Am.
+ */
+class TwoQ extends Replacer {
+
+  /** Queue of a frame that is empty. */
+  protected static final int NONE = 0;
+
+  /** Queue of a frame whose page was read for the first time. */
+  protected static final int A1IN = 1;
+
+  /** Queue of a frame whose page has been referenced again. */
+  protected static final int AM = 2;
+
+  // --------------------------------------------------------------------------
+
+  /** Target size of A1in, in frames. */
+  protected int kin;
+
+  /** Maximum size of A1out, in page ids. */
+  protected int kout;
+
+  /** Each frame's position in its queue (the lowest comes first). */
+  protected long[] order;
+
+  /** Ids of the pages recently replaced from A1in, oldest first. */
+  protected LinkedHashSet<Integer> a1out;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a 2Q replacer with the queue sizes suggested by its authors,
+   * i.e. a quarter of the frames for A1in and half as many ids as frames in
+   * A1out.
+   */
+  public TwoQ(BufMgr bufmgr) {
+
+    super(bufmgr);
+    kin = Math.max(1, frametab.length / 4);
+    kout = Math.max(1, frametab.length / 2);
+    order = new long[frametab.length];
+    a1out = new LinkedHashSet<Integer>();
+    for (int i = 0; i < frametab.length; i++) {
+      frametab[i].state = NONE;
+    }
+
+  } // public TwoQ(BufMgr bufmgr)
+
+  public void newPage(FrameDesc fdesc) {
+    forgetReference(fdesc);
+    fdesc.state = a1out.remove(fdesc.pageno.pid) ? AM : A1IN;
+    order[fdesc.index] = time.incrementAndGet();
+  }
+
+  public void freePage(FrameDesc fdesc) {
+    forgetReference(fdesc);
+    fdesc.state = NONE;
+  }
+
+  public void pinPage(FrameDesc fdesc) {
+    reference(fdesc);
+  }
+
+  /**
+   * Moves the page to the end of Am, if it is there (A1in is a FIFO).
+   */
+  protected void applyReference(FrameDesc fdesc, long when) {
+    if (fdesc.state == AM) {
+      order[fdesc.index] = when;
+    }
+  }
+
+  public void unpinPage(FrameDesc fdesc) {
+    // only pins count as references
+  }
+
+  /**
+   * Picks the first unpinned page of A1in if it is over its target size, or
+   * the least recently used unpinned page of Am otherwise (or of the other
+   * queue, if every page in one is pinned).  A page replaced from A1in is
+   * remembered in A1out.
+   */
+  public int pickVictim() {
+
+    applyReferences();
+    int victim = pickEmpty();
+    if (victim >= 0) {
+      return victim;
+    }
+
+    int count = 0;
+    for (int i = 0; i < frametab.length; i++) {
+      if (frametab[i].state == A1IN) {
+        count++;
+      }
+    }
+
+    // another thread may pin the chosen page before it is claimed
+    for (int tries = 0; victim < 0; tries++) {
+      if (count > kin) {
+        victim = pickFirst(A1IN);
+        if (victim < 0) {
+          victim = pickFirst(AM);
+        }
+      } else {
+        victim = pickFirst(AM);
+        if (victim < 0) {
+          victim = pickFirst(A1IN);
+        }
+      }
+      if (victim < 0 || tries == frametab.length) {
+        return -1;
+      }
+      if (!claim(frametab[victim])) {
+        victim = -1;
+      }
+    }
+
+    if (frametab[victim].state == A1IN) {
+      a1out.add(frametab[victim].pageno.pid);
+      if (a1out.size() > kout) {
+        Iterator<Integer> oldest = a1out.iterator();
+        oldest.next();
+        oldest.remove();
+      }
+    }
+    frametab[victim].state = NONE;
+    return victim;
+
+  } // public int pickVictim()
+
+  /**
+   * Gets the index of the first unpinned frame in the given queue, or -1 if
+   * there is none.
+   */
+  protected int pickFirst(int queue) {
+
+    int victim = -1;
+    for (int i = 0; i < frametab.length; i++) {
+      if (frametab[i].state == queue && frametab[i].pincnt.get() == 0
+          && (victim < 0 || order[i] < order[victim])) {
+        victim = i;
+      }
+    }
+    return victim;
+
+  } // protected int pickFirst(int queue)
+
+} // class TwoQ extends Replacer
@@ -3,6 +3,8 @@ package diskmgr;
 import global.Page;
 import global.PageId;
 
+import java.util.Arrays;
+
 /**
  * Header pages contain the space map, the file library, and
  * assorted metadata.
@@ -116,6 +118,10 @@ class DBHeaderPage extends Page {
   public void setFileEntry(String fname, PageId pageNo, int entryNo) {
     int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
     setIntValue(pageNo.pid, position);
+
+    // clear any longer name previously stored in the entry
+    Arrays.fill(data, position + 4, position + SIZE_OF_FILE_ENTRY,
+        (byte) 0);
     setStringValue(fname, position + 4);
   }
 
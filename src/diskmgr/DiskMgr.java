@@ -8,6 +8,12 @@ import global.PageId;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <h3>Minibase Disk Manager</h3>
@@ -22,12 +28,38 @@ import java.io.RandomAccessFile;
  * </ol>
  * The disk manager manages a library of entries consisting of the name of
  * a file and the page number of the first page in the file.
+ * <br><br>
+ * Pages are read and written with positional FileChannel calls, so that
+ * many threads may read and write pages at once.  The space map is kept in
+ * memory (as a bitset, saved when flushed), and allocating and deallocating
+ * pages is synchronized; managing the library must still be done by one
+ * thread at a time.
+ * <br><br>
+ * Allocation starts from the first page that may be free, rather than the
+ * start of the space map, and reuses runs of pages freed recently.  Runs of
+ * pages may also be reserved as extents (see Extent), whose pages are then
+ * allocated one at a time, and skipped by other allocations.
+ * <br><br>
+ * A disk manager may instead map the whole file into memory (e.g. when the
+ * database fits in RAM), in which case reading and writing a page just
+ * copies it from or to the mapped file, and flushing forces the changes to
+ * disk.  The file is mapped in segments, since each mapping is limited to
+ * 2 GB.
   */
 public class DiskMgr implements GlobalConst {
 
   /** Number of actual bits per page. */
   protected static final int BITS_PER_PAGE = PAGE_SIZE * 8;
 
+  /** Number of words of the space map per page. */
+  protected static final int WORDS_PER_PAGE = BITS_PER_PAGE / 64;
+
+  /** Number of runs freed recently to remember, for reuse. */
+  protected static final int FREED_RUNS = 8;
+
+  /** Number of pages in each mapped segment of the file (i.e. 1 GB). */
+  protected static final int SEGMENT_PAGES = (1 << 30) / PAGE_SIZE;
+
   // --------------------------------------------------------------------------
 
   /** Pages in the database are stored as an Operating System file.  
@@ -36,18 +68,68 @@ public class DiskMgr implements GlobalConst {
 
   /** Reference to the OS file. */
   protected RandomAccessFile fp;
+
+  /** Channel of the OS file, for reading and writing pages. */
+  protected FileChannel channel;
+
+  /** True if the OS file is to be memory-mapped; false otherwise. */
+  protected final boolean mapped;
+
+  /** Mapped segments of the OS file, or null if it is not mapped. */
+  protected MappedByteBuffer[] segments;
   
   /** Database size, in pages. */
   protected int num_db_pages;
 
+  /** The space map, one bit per page (set if allocated), 64 pages a word. */
+  protected long[] spacemap;
+
+  /** For each page of the space map, true if changed since last saved. */
+  protected boolean[] map_dirty;
+
+  /** Number of allocated pages. */
+  protected int alloc_count;
+
+  /** First page that may be free (i.e. all before are allocated or reserved). */
+  protected int next_free;
+
+  /** First pages of the runs freed recently. */
+  protected int[] freed_first;
+
+  /** Numbers of pages in the runs freed recently (0 if used up). */
+  protected int[] freed_length;
+
+  /** Position of the next run freed in the arrays above. */
+  protected int freed_pos;
+
+  /** The pages reserved by extents, one bit per page like the space map. */
+  protected long[] reserved;
+
+  /** True if pages were written in the background when last closed. */
+  protected boolean background_flush;
+
   /** Number of disk page reads since database construction. */
-  protected int read_cnt;
+  protected final AtomicInteger read_cnt = new AtomicInteger();
 
   /** Number of disk page writes since database construction. */
-  protected int write_cnt;
+  protected final AtomicInteger write_cnt = new AtomicInteger();
 
   // ------Manage the DB--------------------
 
+  /**
+   * Constructs a disk manager that reads and writes the OS file.
+   */
+  public DiskMgr() {
+    this(false);
+  }
+
+  /**
+   * Constructs a disk manager that memory-maps the OS file if mapped is
+   * true, or reads and writes it otherwise.
+   */
+  public DiskMgr(boolean mapped) {
+    this.mapped = mapped;
+  }
 
   /**
    * Creates and opens a new database with the given OS file name and specified
@@ -66,8 +148,10 @@ public class DiskMgr implements GlobalConst {
     // create the database file, num_pages pages long
     try {
       fp = new RandomAccessFile(fname, "rw");
-      fp.seek((long) (num_db_pages * PAGE_SIZE - 1));
+      fp.seek((long) num_db_pages * PAGE_SIZE - 1);
       fp.writeByte(0);
+      channel = fp.getChannel();
+      mapFile();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
@@ -82,6 +166,7 @@ public class DiskMgr implements GlobalConst {
     // calculate how many pages are needed for the space map; reserve
     // page 0 plus room for the space map
     int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    new_space_map();
     set_bits(pageId, 1 + num_map_pages, 1);
 
   } // public void createDB(String fname, int num_pgs)
@@ -98,6 +183,8 @@ public class DiskMgr implements GlobalConst {
     	throw new IllegalStateException("File "+name+" does not exist\n");
     try {
       fp = new RandomAccessFile(fname, "rw");
+      channel = fp.getChannel();
+      mapFile();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
@@ -112,15 +199,33 @@ public class DiskMgr implements GlobalConst {
     num_db_pages = firstpg.getNumDBPages();
     Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
 
+    // and the space map, and allow reading ahead (and writing in the
+    // background, if it was before closing) again
+    load_space_map();
+    if (Minibase.DiskManager == this) {
+      Minibase.BufferManager.setReadAhead(true);
+      if (background_flush) {
+        Minibase.BufferManager.setBackgroundFlush(true);
+      }
+    }
+
   } // public void openDB(String fname)
 
   /**
    * Close the database file.  Ensure that buffer contents have been
-   * written to disk and close the OS file.
+   * written to disk (stopping any reads and writes in the background, until
+   * reopened; pages are only read ahead from, and written in the background
+   * to, the current database) and close the OS file.
    */
   public void closeDB() {
     try {
+      if (Minibase.DiskManager == this) {
+        Minibase.BufferManager.setReadAhead(false);
+        background_flush = Minibase.BufferManager.isBackgroundFlush();
+        Minibase.BufferManager.setBackgroundFlush(false);
+      }
       Minibase.BufferManager.flushAllFrames();
+      segments = null;
       fp.close();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
@@ -152,11 +257,18 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid page number; read aborted");
     }
 
-    // seek to the correct page on disk and read it
+    // copy the page from the mapped file, or read it at its position on
+    // disk (in one call, unless the OS returns less)
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.read(mempage.getData());
-      read_cnt++;
+      if (segments != null) {
+        mappedPage(pageno).get(mempage.getData());
+      } else {
+        ByteBuffer buffer = ByteBuffer.wrap(mempage.getData());
+        long position = (long) pageno.pid * PAGE_SIZE;
+        while (buffer.hasRemaining()
+            && channel.read(buffer, position + buffer.position()) >= 0);
+      }
+      read_cnt.incrementAndGet();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
@@ -177,28 +289,195 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid page number; write aborted");
     }
 
-    // seek to the correct page on disk and write it
+    // copy the page into the mapped file, or write it at its position on disk
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.write(mempage.getData());
-      write_cnt++;
+      if (segments != null) {
+        mappedPage(pageno).put(mempage.getData());
+      } else {
+        ByteBuffer buffer = ByteBuffer.wrap(mempage.getData());
+        long position = (long) pageno.pid * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+          channel.write(buffer, position + buffer.position());
+        }
+      }
+      write_cnt.incrementAndGet();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
   } // public void write_page(PageId pageno, Page mempage)
+
+  /**
+   * Reads the contents of the given pages from disk, in order of page id;
+   * runs of adjacent pages are read with one (scattering) call.
+   * 
+   * @param pagenos identifies the pages to read
+   * @param mempages output parameters to hold the contents of the pages
+   * @throws IllegalArgumentException if any pageno is invalid, or if the
+   * arrays differ in length
+   */
+  public void read_pages(PageId[] pagenos, Page[] mempages) {
+    transfer_pages(pagenos, mempages, true);
+  }
+
+  /**
+   * Writes the contents of the given pages to disk, in order of page id;
+   * runs of adjacent pages are written with one (gathering) call.  If a page
+   * is given more than once, the last contents given are written.
+   * 
+   * @param pagenos identifies the pages to write
+   * @param mempages holds the contents of the pages
+   * @throws IllegalArgumentException if any pageno is invalid, or if the
+   * arrays differ in length
+   */
+  public void write_pages(PageId[] pagenos, Page[] mempages) {
+    transfer_pages(pagenos, mempages, false);
+  }
+
+  /**
+   * Saves the space map, and forces the pages written to the mapped file
+   * onto disk; pages written otherwise are left to the OS, as they are
+   * written directly.
+   */
+  public void flush() {
+    save_space_map();
+    if (segments != null) {
+      for (MappedByteBuffer segment : segments) {
+        segment.force();
+      }
+    }
+  }
+
+  /**
+   * Reads or writes the given pages, sorted by page id, one run of adjacent
+   * pages at a time (see read_pages and write_pages).
+   */
+  protected void transfer_pages(final PageId[] pagenos, Page[] mempages,
+      boolean read) {
+
+    // validate the page ids (before reading or writing any of them)
+    String op = read ? "read" : "write";
+    if (pagenos.length != mempages.length) {
+      throw new IllegalArgumentException("Page counts differ; " + op
+          + " aborted");
+    }
+    for (PageId pageno : pagenos) {
+      if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
+        throw new IllegalArgumentException("Invalid page number; " + op
+            + " aborted");
+      }
+    }
+
+    // sort the pages by id (stably, so that the last write of a page wins)
+    Integer[] order = new Integer[pagenos.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Integer.compare(pagenos[a].pid, pagenos[b].pid);
+      }
+    });
+
+    try {
+      for (int start = 0, end; start < order.length; start = end) {
+
+        // find the run of adjacent pages
+        end = start + 1;
+        while (end < order.length
+            && pagenos[order[end]].pid == pagenos[order[end - 1]].pid + 1) {
+          end++;
+        }
+
+        // copy the pages from or into the mapped file, or transfer them all
+        // at the position of the first one
+        if (segments != null) {
+          for (int i = start; i < end; i++) {
+            ByteBuffer page = mappedPage(pagenos[order[i]]);
+            if (read) {
+              page.get(mempages[order[i]].getData());
+            } else {
+              page.put(mempages[order[i]].getData());
+            }
+          }
+        } else {
+          ByteBuffer[] buffers = new ByteBuffer[end - start];
+          for (int i = start; i < end; i++) {
+            buffers[i - start] = ByteBuffer.wrap(mempages[order[i]].getData());
+          }
+          transfer_run((long) pagenos[order[start]].pid * PAGE_SIZE, buffers,
+              read);
+        }
+
+      } // for each run
+      (read ? read_cnt : write_cnt).addAndGet(order.length);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // protected void transfer_pages(final PageId[] pagenos, Page[] mempages, boolean read)
+
+  /**
+   * Reads or writes a run of adjacent pages at the given position on disk,
+   * in as few calls as the OS allows.  Scattering and gathering use the
+   * position of the channel, which only one thread may move at a time (reads
+   * and writes of single pages don't use it).
+   */
+  protected void transfer_run(long position, ByteBuffer[] buffers,
+      boolean read) throws IOException {
+
+    synchronized (channel) {
+      channel.position(position);
+      ByteBuffer last = buffers[buffers.length - 1];
+      while (last.hasRemaining()
+          && (read ? channel.read(buffers) : channel.write(buffers)) >= 0);
+    }
+
+  } // protected void transfer_run(long position, ByteBuffer[] buffers, boolean read)
+
+  /**
+   * Maps the OS file into memory in segments, if it is to be mapped.
+   */
+  protected void mapFile() throws IOException {
+
+    segments = null;
+    if (!mapped) {
+      return;
+    }
+    long length = channel.size();
+    long segsize = (long) SEGMENT_PAGES * PAGE_SIZE;
+    int count = (int) ((length + segsize - 1) / segsize);
+    MappedByteBuffer[] segs = new MappedByteBuffer[count];
+    for (int i = 0; i < segs.length; i++) {
+      long position = i * segsize;
+      segs[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+          Math.min(segsize, length - position));
+    }
+    segments = segs;
+
+  } // protected void mapFile()
+
+  /**
+   * Gets a view of the given page in the mapped file (a new view, since
+   * many threads may copy pages at once).
+   */
+  protected ByteBuffer mappedPage(PageId pageno) {
+    ByteBuffer page = segments[pageno.pid / SEGMENT_PAGES].duplicate();
+    page.position((pageno.pid % SEGMENT_PAGES) * PAGE_SIZE);
+    return page;
+  }
   
   /**
    * Gets the number of disk reads since database construction.
    */
   public int getReadCount() {
-    return read_cnt;
+    return read_cnt.get();
   }
   /**
    * Gets the number of disk writes since database construction.
    */
   public int getWriteCount() {
-    return write_cnt;
+    return write_cnt.get();
   }
 
 //-----Manage allocation and deallocation of pages -------------------
@@ -212,81 +491,31 @@ public class DiskMgr implements GlobalConst {
    * @throws IllegalStateException if there is no room for a run
    * of that length
    */
-  public PageId allocate_page(int run_size) {
+  public synchronized PageId allocate_page(int run_size) {
 
     // validate the run size
     if ((run_size < 1) || (run_size > num_db_pages)) {
       throw new IllegalArgumentException("Invalid run size; allocate aborted");
     }
 
-    // calculate the size of the space map
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    int current_run_start = 0;
-    int current_run_length = 0;
-
-    // this loop goes over each page in the space map
-    PageId pgid = new PageId();
-    Page apage = new Page();
-    for (int i = 0; i < num_map_pages; ++i) {
-
-      // pin the current space-map page
-      pgid.pid = i + 1;
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
-
-      // get the number of bits on current page
-      int num_bits_this_page = num_db_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE)
-        num_bits_this_page = BITS_PER_PAGE;
-
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length. The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      byte[] pagebuf = apage.getData();
-      for (int byteptr = 0; num_bits_this_page > 0
-          && current_run_length < run_size; byteptr++) {
-
-        // initialize bit mask
-        Byte mask = new Byte(new Integer(1).byteValue());
-        byte tmpmask = mask.byteValue();
-
-        // search the page.  If you see a 0, increment the current
-        // run.  If you see a 1, restart the current run.
-        while (mask.intValue() != 0 && (num_bits_this_page > 0)
-            && (current_run_length < run_size)) {
-
-          // if a 1 is found
-          if ((pagebuf[byteptr] & tmpmask) != 0) {
-            current_run_start += current_run_length + 1;
-            current_run_length = 0;
-          } else {
-            current_run_length++;
-          }
-
-          // advance to the next bit
-          tmpmask <<= 1;
-          mask = new Byte(tmpmask);
-          num_bits_this_page--;
-
-        } // while
-
-      } // inner loop
-
-      // unpin the current space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
-
-    } // outer loop
+    // reuse a run freed recently, or find the first free run (which for a
+    // single page is usually the first free page)
+    int first = (run_size > 1) ? take_freed_run(run_size) : -1;
+    if (first < 0) {
+      first = find_run(run_size);
+    }
 
     // check for disk full exception
-    if (current_run_length < run_size) {
+    if (first < 0) {
       throw new IllegalStateException("Not enough space left; allocate aborted");
     }
 
     // update the space map and return the resulting page id
-    PageId firstpg = new PageId(current_run_start);
+    PageId firstpg = new PageId(first);
     set_bits(firstpg, run_size, 1);
     return firstpg;
 
-  } // public PageId allocate_page(int run_size)
+  } // public synchronized PageId allocate_page(int run_size)
 
   /**
    * Allocates a single page (i.e. run size 1) on disk.
@@ -297,6 +526,53 @@ public class DiskMgr implements GlobalConst {
   public PageId allocate_page() {
     return allocate_page(1);
   }
+
+  /**
+   * Allocates the next page of the given extent, first reserving another run
+   * of pages for it if none are left (or allocating a single page as usual,
+   * if there is no room for one).
+   * 
+   * @return The id of the page
+   * @throws IllegalStateException if the database is full
+   */
+  public synchronized PageId allocate_page(Extent extent) {
+
+    // reserve a run if the extent is used up (or not reserved here)
+    if (extent.next >= extent.end || extent.owner != reserved) {
+      int first = find_run(extent.size);
+      if (first < 0) {
+        extent.next = extent.end = 0;
+        extent.owner = null;
+        return allocate_page(1);
+      }
+      extent.next = first;
+      extent.end = first + extent.size;
+      extent.owner = reserved;
+      set_reserved(first, extent.end, true);
+    }
+
+    // allocate its next page
+    PageId pageno = new PageId(extent.next++);
+    set_reserved(pageno.pid, extent.next, false);
+    set_bits(pageno, 1, 1);
+    return pageno;
+
+  } // public synchronized PageId allocate_page(Extent extent)
+
+  /**
+   * Releases the pages of the given extent that are still reserved, so that
+   * they may be allocated as usual.
+   */
+  public synchronized void release_extent(Extent extent) {
+
+    if (extent.owner == reserved && extent.next < extent.end) {
+      set_reserved(extent.next, extent.end, false);
+      next_free = Math.min(next_free, extent.next);
+    }
+    extent.next = extent.end = 0;
+    extent.owner = null;
+
+  } // public synchronized void release_extent(Extent extent)
   
    /**
    * Deallocates a run of pages on disk.
@@ -308,7 +584,7 @@ public class DiskMgr implements GlobalConst {
    * @param run_size number of pages to deallocate
    * @throws IllegalArgumentException if firstid or run_size is invalid
    */
-  public void deallocate_page(PageId firstid, int run_size) {
+  public synchronized void deallocate_page(PageId firstid, int run_size) {
 
     // validate the page id
     if ((firstid.pid < 0) || (firstid.pid >= num_db_pages)) {
@@ -321,10 +597,16 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid run size; deallocate aborted");
     }
 
-    // update the space map
+    // update the space map, the first free page, and the runs freed
     set_bits(firstid, run_size, 0);
+    next_free = Math.min(next_free, firstid.pid);
+    if (run_size > 1) {
+      freed_first[freed_pos] = firstid.pid;
+      freed_length[freed_pos] = Math.min(run_size, num_db_pages - firstid.pid);
+      freed_pos = (freed_pos + 1) % FREED_RUNS;
+    }
 
-  } // public void deallocate_page(PageId firstid, int run_size)
+  } // public synchronized void deallocate_page(PageId firstid, int run_size)
 
   /**
    * Deallocates a single page (i.e. run size 1) on disk.
@@ -338,69 +620,24 @@ public class DiskMgr implements GlobalConst {
   /**
    * Gets the number of allocated disk pages.
    */
-  public int getAllocCount() { 
-
-    // initialize reused variables
-    int count = 0;
-    int bit_number = 0;
-    PageId pgid = new PageId();
-    Page apage = new Page();
-
-    // iterate each page in the space map
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    for (int i = 0; i < num_map_pages; i++) {
-
-      // pin the space-map page
-      pgid.pid = 1 + i;
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
-
-      // how many bits should we examine on this page?
-      int num_bits_this_page = num_db_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE) {
-        num_bits_this_page = BITS_PER_PAGE;
-      }
-
-      // walk the page looking for 1 bits
-      byte[] pagebuf = apage.getData();
-      for (int pgptr = 0; num_bits_this_page > 0; pgptr++) { // start forloop02
-        for (int mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {
-          int bit = pagebuf[pgptr] & mask;
-          if (bit != 0) {
-            count++;
-          }
-        }
-      }
-
-      // unpin the space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
-
-    } // end of forloop01
-
-    // return the resulting count
-    return count;
-
-  } // public int getAllocCount()
+  public synchronized int getAllocCount() { 
+    return alloc_count;
+  }
 
   /**
    * Print out the database's space map, a bitmap showing which pages are
    * currently allocated.
    */
-  public void print_space_map() {
+  public synchronized void print_space_map() {
 
     int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
     int bit_number = 0;
 
     // this loop goes over each page in the space map
-    PageId pgid = new PageId();
     System.out.println("num_map_pages = " + num_map_pages);
     System.out.print("num_pages = " + num_db_pages);
     for (int i = 0; i < num_map_pages; i++) { // start forloop01
 
-      // pin the space-map page
-      pgid.pid = 1 + i; // space map starts at page1
-      Page apage = new Page();
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
-
       // how many bits should we examine on this page?
       int num_bits_this_page = num_db_pages - i * BITS_PER_PAGE;
       if (num_bits_this_page > BITS_PER_PAGE) {
@@ -411,113 +648,266 @@ public class DiskMgr implements GlobalConst {
       if (i > 0)
         System.out.print("\t");
 
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length. The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      int pgptr = 0;
-      byte[] pagebuf = apage.getData();
-      int mask;
-      for (; num_bits_this_page > 0; pgptr++) { // start forloop02
-
-        for (mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {
-          // start forloop03
-
-          int bit = pagebuf[pgptr] & mask;
-          if ((bit_number % 10) == 0) {
-            if ((bit_number % 50) == 0) {
-              if (bit_number > 0) {
-                System.out.println("\n");
-              }
-              System.out.print("\t" + bit_number + ": ");
-            } else {
-              System.out.print(' ');
-            }
-          }
+      // walk the page's bits
+      for (; num_bits_this_page > 0; --num_bits_this_page, ++bit_number) {
+        // start forloop02
 
-          if (bit != 0) {
-            System.out.print("1");
+        if ((bit_number % 10) == 0) {
+          if ((bit_number % 50) == 0) {
+            if (bit_number > 0) {
+              System.out.println("\n");
+            }
+            System.out.print("\t" + bit_number + ": ");
           } else {
-            System.out.print("0");
+            System.out.print(' ');
           }
+        }
 
-        } // end of forloop03
+        if ((spacemap[bit_number >>> 6] & (1L << bit_number)) != 0) {
+          System.out.print("1");
+        } else {
+          System.out.print("0");
+        }
 
       } // end of forloop02
 
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
-
     } // end of forloop01
 
     System.out.println();
 
-  } // public void print_space_map()
+  } // public synchronized void print_space_map()
   
   /**
    * Sets 'run_size' bits in the space map to the given value, starting from
-   * 'start_page'.
+   * 'start_page' (and stopping at the end of the database).
    */
-  protected void set_bits(PageId start_page, int run_size, int value) {
+  protected synchronized void set_bits(PageId start_page, int run_size,
+      int value) {
 
     // locate the run within the space map
-    int first_map_page = start_page.pid / BITS_PER_PAGE + 1;
-    int last_map_page = (start_page.pid + run_size - 1) / BITS_PER_PAGE + 1;
-    int first_bit_no = start_page.pid % BITS_PER_PAGE;
-
-    // the outer loop goes over all space-map pages we need to touch
-    for (PageId pgid = new PageId(first_map_page); pgid.pid <= last_map_page; pgid.pid = pgid.pid + 1, first_bit_no = 0) {
-      // Start forloop01
-
-      // pin the space-map page
-      Page pg = new Page();
-      Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
-      byte[] pgbuf = pg.getData();
-
-      // locate the piece of the run that fits on this page
-      int first_byte_no = first_bit_no / 8;
-      int first_bit_offset = first_bit_no % 8;
-      int last_bit_no = first_bit_no + run_size - 1;
-
-      if (last_bit_no >= BITS_PER_PAGE) {
-        last_bit_no = BITS_PER_PAGE - 1;
+    int first_bit_no = start_page.pid;
+    int end_bit_no = Math.min(first_bit_no + run_size, num_db_pages);
+
+    // this loop flips the bits of each word, keeping count
+    for (int i = first_bit_no >>> 6; i <= (end_bit_no - 1) >>> 6; i++) {
+
+      long mask = range_bits(i, first_bit_no, end_bit_no);
+      long word = (value == 1) ? (spacemap[i] | mask) : (spacemap[i] & ~mask);
+      alloc_count += Long.bitCount(word) - Long.bitCount(spacemap[i]);
+      spacemap[i] = word;
+      map_dirty[i / WORDS_PER_PAGE] = true;
+
+    } // for
+
+  } // protected synchronized void set_bits(PageId start_page, int run_size, int value)
+
+  /**
+   * Finds the first run of the given number of pages that are free and not
+   * reserved, starting from the first free page (which is then moved past
+   * the run, if it starts there).
+   * 
+   * @return The id of the first page in the run, or -1 if there is none
+   */
+  protected int find_run(int run_size) {
+
+    // Walk the space map looking for a sequence of 0 bits of the appropriate
+    // length. The outer loop steps through the words, the inner one skips
+    // over each word's runs of 0 and 1 bits.
+    int first_word = next_free >>> 6;
+    int first_free = -1;
+    int current_run_start = first_word * 64;
+    int current_run_length = 0;
+    for (int i = first_word; i < spacemap.length
+        && current_run_length < run_size; i++) {
+
+      // reserved pages and pages before the first free one count as 1 bits
+      long word = spacemap[i] | reserved[i];
+      if (i == first_word) {
+        word |= (1L << next_free) - 1;
+      }
+      if (first_free < 0 && word != -1L) {
+        first_free = i * 64 + Long.numberOfTrailingZeros(~word);
       }
 
-      int last_byte_no = last_bit_no / 8;
+      int bit = 0;
+      while (bit < 64 && current_run_length < run_size) {
 
-      // this loop actually flips the bits on the current page
-      int cur_posi = first_byte_no;
-      for (; cur_posi <= last_byte_no; ++cur_posi, first_bit_offset = 0) {
-        // start forloop02
+        // count the 0 bits, up to the end of the word
+        long rest = word >>> bit;
+        if (rest == 0) {
+          current_run_length += 64 - bit;
+          break;
+        }
+        int zeros = Long.numberOfTrailingZeros(rest);
+        current_run_length += zeros;
+        if (current_run_length >= run_size) {
+          break;
+        }
 
-        int max_bits_this_byte = 8 - first_bit_offset;
-        int num_bits_this_byte = (run_size > max_bits_this_byte ? max_bits_this_byte
-            : run_size);
-
-        int imask = 1;
-        int temp;
-        imask = ((imask << num_bits_this_byte) - 1) << first_bit_offset;
-        Integer intmask = new Integer(imask);
-        Byte mask = new Byte(intmask.byteValue());
-        byte bytemask = mask.byteValue();
-
-        if (value == 1) {
-          temp = (pgbuf[cur_posi] | bytemask);
-          intmask = new Integer(temp);
-          pgbuf[cur_posi] = intmask.byteValue();
-        } else {
-          temp = pgbuf[cur_posi] & (255 ^ bytemask);
-          intmask = new Integer(temp);
-          pgbuf[cur_posi] = intmask.byteValue();
+        // skip the 1 bits, and restart the current run
+        bit += zeros;
+        bit += Long.numberOfTrailingZeros(~(word >>> bit));
+        current_run_start = i * 64 + bit;
+        current_run_length = 0;
+
+      } // while
+
+    } // for
+
+    // the last word may extend past the end of the database
+    if (current_run_length < run_size
+        || current_run_start + run_size > num_db_pages) {
+      return -1;
+    }
+    next_free = (current_run_start == first_free) ? first_free + run_size
+        : first_free;
+    return current_run_start;
+
+  } // protected int find_run(int run_size)
+
+  /**
+   * Takes the given number of pages from the start of a run freed recently,
+   * if one is long enough and its pages are still free (forgetting the runs
+   * found otherwise).
+   * 
+   * @return The id of the first page taken, or -1 if there is none
+   */
+  protected int take_freed_run(int run_size) {
+
+    for (int j = 0; j < FREED_RUNS; j++) {
+      if (freed_length[j] >= run_size) {
+
+        int first = freed_first[j];
+        boolean free = true;
+        for (int i = first >>> 6; i <= (first + run_size - 1) >>> 6; i++) {
+          long used = spacemap[i] | reserved[i];
+          free &= (used & range_bits(i, first, first + run_size)) == 0;
+        }
+        if (free) {
+          freed_first[j] += run_size;
+          freed_length[j] -= run_size;
+          return first;
         }
-        run_size -= num_bits_this_byte;
+        freed_length[j] = 0;
 
-      } // end of forloop02
+      }
+    }
+    return -1;
 
-      // unpin the space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY);
+  } // protected int take_freed_run(int run_size)
 
-    } // end of forloop01
+  /**
+   * Marks the pages from first up to (but not including) end as reserved by
+   * an extent, or no longer reserved.
+   */
+  protected void set_reserved(int first, int end, boolean value) {
+
+    end = Math.min(end, num_db_pages);
+    for (int i = first >>> 6; i <= (end - 1) >>> 6; i++) {
+      long mask = range_bits(i, first, end);
+      reserved[i] = value ? (reserved[i] | mask) : (reserved[i] & ~mask);
+    }
+
+  } // protected void set_reserved(int first, int end, boolean value)
+
+  /**
+   * Gets the bits of the given word of the space map for the pages from first
+   * up to (but not including) end.
+   */
+  protected static long range_bits(int word, int first, int end) {
+
+    int lo = Math.max(first, word * 64);
+    int hi = Math.min(end, word * 64 + 64);
+    if (lo >= hi) {
+      return 0;
+    }
+    long bits = -1L << lo;
+    if ((hi & 63) != 0) {
+      bits &= (1L << hi) - 1;
+    }
+    return bits;
+
+  } // protected static long range_bits(int word, int first, int end)
+
+  /**
+   * Creates an empty space map (and no runs freed or reserved).
+   */
+  protected void new_space_map() {
+
+    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    spacemap = new long[(num_db_pages + 63) / 64];
+    reserved = new long[spacemap.length];
+    map_dirty = new boolean[num_map_pages];
+    alloc_count = 0;
+    next_free = 0;
+    freed_first = new int[FREED_RUNS];
+    freed_length = new int[FREED_RUNS];
+    freed_pos = 0;
+
+  } // protected void new_space_map()
+
+  /**
+   * Reads the space map from its pages on disk (i.e. pages 1 and up; each
+   * byte holds the bits of 8 pages, the lowest bit first), and counts the
+   * allocated pages.
+   */
+  protected synchronized void load_space_map() {
+
+    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    PageId[] pagenos = new PageId[num_map_pages];
+    Page[] pages = new Page[num_map_pages];
+    for (int i = 0; i < num_map_pages; i++) {
+      pagenos[i] = new PageId(1 + i);
+      pages[i] = new Page();
+    }
+    read_pages(pagenos, pages);
+
+    // each word holds the bits of 8 bytes, the first byte lowest
+    new_space_map();
+    for (int i = 0; i < spacemap.length; i++) {
+      byte[] pagebuf = pages[i / WORDS_PER_PAGE].getData();
+      int offset = (i % WORDS_PER_PAGE) * 8;
+      long word = 0;
+      for (int k = 7; k >= 0; k--) {
+        word = (word << 8) | (pagebuf[offset + k] & 0xff);
+      }
+      spacemap[i] = word;
+      alloc_count += Long.bitCount(word);
+    }
+
+  } // protected synchronized void load_space_map()
+
+  /**
+   * Writes the pages of the space map that have changed since loaded or
+   * last saved to disk.
+   */
+  protected synchronized void save_space_map() {
+
+    int num_map_pages = map_dirty.length;
+    PageId[] pagenos = new PageId[num_map_pages];
+    Page[] pages = new Page[num_map_pages];
+    int count = 0;
+    for (int i = 0; i < num_map_pages; i++) {
+      if (map_dirty[i]) {
+
+        // store the page's words, the first byte lowest
+        map_dirty[i] = false;
+        pagenos[count] = new PageId(1 + i);
+        pages[count] = new Page();
+        byte[] pagebuf = pages[count++].getData();
+        int last = Math.min((i + 1) * WORDS_PER_PAGE, spacemap.length);
+        for (int w = i * WORDS_PER_PAGE; w < last; w++) {
+          int offset = (w % WORDS_PER_PAGE) * 8;
+          for (int k = 0; k < 8; k++) {
+            pagebuf[offset + k] = (byte) (spacemap[w] >>> (8 * k));
+          }
+        }
+
+      }
+    }
+    write_pages(Arrays.copyOf(pagenos, count), Arrays.copyOf(pages, count));
 
-  } // protected void set_bits(PageId start_page, int run_size, int bit)
+  } // protected synchronized void save_space_map()
 
   //-----Manage File Library-------------------
   
@@ -0,0 +1,61 @@
+package diskmgr;
+
+/**
+ * An extent is a run of free pages reserved by the disk manager for one user
+ * (e.g. the buckets of an index), which allocates them one at a time, so
+ * that pages allocated together end up adjacent on disk.  When the pages
+ * run out, another run of the same size is reserved.  The reservation is
+ * only kept in memory: pages not yet allocated are free on disk.
+ */
+public class Extent {
+
+  /** Smallest number of pages in an extent. */
+  public static final int MIN_SIZE = 8;
+
+  /** Largest number of pages in an extent. */
+  public static final int MAX_SIZE = 64;
+
+  // --------------------------------------------------------------------------
+
+  /** Number of pages reserved at a time. */
+  protected final int size;
+
+  /** Id of the next page to allocate. */
+  protected int next;
+
+  /** Id of the page following the reserved run. */
+  protected int end;
+
+  /**
+   * The disk manager's reserved pages when the run was reserved (so a run
+   * reserved before the database was reopened is not taken as still kept).
+   */
+  protected long[] owner;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty extent, which reserves the given number of pages at
+   * a time.
+   *
+   * @throws IllegalArgumentException if size is not between MIN_SIZE and
+   * MAX_SIZE
+   */
+  public Extent(int size) {
+
+    if (size < MIN_SIZE || size > MAX_SIZE) {
+      throw new IllegalArgumentException("Invalid extent size");
+    }
+    this.size = size;
+    next = end = 0;
+
+  } // public Extent(int size)
+
+  /**
+   * Gets the number of pages reserved and not yet allocated.
+   */
+  public int getRemaining() {
+    return end - next;
+  }
+
+} // public class Extent
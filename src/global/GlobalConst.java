@@ -34,6 +34,12 @@ public interface GlobalConst {
 
   /** Don't copy anything into the frame. */
   public static final int PIN_NOOP = 12;
+
+  /** Access hint: the page may be used again soon (the default). */
+  public static final int ACCESS_RANDOM = 20;
+
+  /** Access hint: the page is used once, e.g. by a scan of a whole file. */
+  public static final int ACCESS_ONCE = 21;
   
   /** Forces the page to be written to disk when unpinned. */
   public static final boolean UNPIN_DIRTY = true;
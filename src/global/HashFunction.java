@@ -0,0 +1,147 @@
+package global;
+
+/**
+ * Enumeration class for the hash functions applied to search keys.  The
+ * function used by an index is kept in its directory, so its value must
+ * never change once assigned.
+ */
+public class HashFunction {
+
+  /** The original hash: the key's low bits (or first four string bytes). */
+  public static final int DEFAULT = 0;
+
+  /** MurmurHash3 (x86, 32-bit) over all of the key's bytes. */
+  public static final int MURMUR3 = 1;
+
+  // --------------------------------------------------------------------------
+
+  private static final int C1 = 0xcc9e2d51;
+  private static final int C2 = 0x1b873593;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Private constructor (static class).
+   */
+  private HashFunction() {}
+
+  /**
+   * True if the given value is a known hash function; false otherwise.
+   */
+  public static boolean isValid(int function) {
+    return (function == DEFAULT) || (function == MURMUR3);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Applies MurmurHash3 to the four bytes of the given value.
+   */
+  public static int murmur3(int value) {
+    return fmix(mixH(0, mixK(value)) ^ 4);
+  }
+
+  /**
+   * Applies MurmurHash3 to every character of the given string, taking one
+   * byte per character as they are stored on pages.
+   */
+  public static int murmur3(String value) {
+
+    int len = value.length();
+    int h = 0;
+
+    // mix in the full four-byte blocks, in little-endian order
+    int i = 0;
+    for (; i + 4 <= len; i += 4) {
+      int k = (value.charAt(i) & 0xff)
+          | ((value.charAt(i + 1) & 0xff) << 8)
+          | ((value.charAt(i + 2) & 0xff) << 16)
+          | ((value.charAt(i + 3) & 0xff) << 24);
+      h = mixH(h, mixK(k));
+    }
+
+    // mix in the remaining bytes, if any
+    int rem = len - i;
+    if (rem > 0) {
+      int k = 0;
+      if (rem >= 3) {
+        k ^= (value.charAt(i + 2) & 0xff) << 16;
+      }
+      if (rem >= 2) {
+        k ^= (value.charAt(i + 1) & 0xff) << 8;
+      }
+      k ^= (value.charAt(i) & 0xff);
+      h ^= mixK(k);
+    }
+
+    return fmix(h ^ len);
+
+  } // public static int murmur3(String value)
+
+  /**
+   * Applies MurmurHash3 to the given bytes of the given data buffer, giving
+   * the same hash as the string they store (see murmur3(String)).
+   */
+  public static int murmur3(byte[] data, int offset, int len) {
+
+    int h = 0;
+
+    // mix in the full four-byte blocks, in little-endian order
+    int i = 0;
+    for (; i + 4 <= len; i += 4) {
+      int pos = offset + i;
+      int k = (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8)
+          | ((data[pos + 2] & 0xff) << 16) | ((data[pos + 3] & 0xff) << 24);
+      h = mixH(h, mixK(k));
+    }
+
+    // mix in the remaining bytes, if any
+    int rem = len - i;
+    if (rem > 0) {
+      int k = 0;
+      if (rem >= 3) {
+        k ^= (data[offset + i + 2] & 0xff) << 16;
+      }
+      if (rem >= 2) {
+        k ^= (data[offset + i + 1] & 0xff) << 8;
+      }
+      k ^= (data[offset + i] & 0xff);
+      h ^= mixK(k);
+    }
+
+    return fmix(h ^ len);
+
+  } // public static int murmur3(byte[] data, int offset, int len)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Scrambles one block of input.
+   */
+  private static int mixK(int k) {
+    k *= C1;
+    k = Integer.rotateLeft(k, 15);
+    return k * C2;
+  }
+
+  /**
+   * Combines a scrambled block into the running hash.
+   */
+  private static int mixH(int h, int k) {
+    h ^= k;
+    h = Integer.rotateLeft(h, 13);
+    return h * 5 + 0xe6546b64;
+  }
+
+  /**
+   * Final avalanche, so that every input bit affects the low bits.
+   */
+  private static int fmix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+
+} // public class HashFunction
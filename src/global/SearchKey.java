@@ -1,8 +1,12 @@
 package global;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Provides a general and type-safe way to store and compare index search keys.
- * The search key includes a type, size and value.
+ * The search key includes a type, size and value.  The value is kept in a
+ * field of its own type (i.e. without boxing), and search keys are immutable.
  */
 public class SearchKey implements Comparable<SearchKey> {
 
@@ -15,6 +19,12 @@ public class SearchKey implements Comparable<SearchKey> {
   /** Internal type number for String keys. */
   protected static final byte STRING_KEY = 3;
 
+  /**
+   * Encoding of string keys, one byte per character (so that their size is
+   * their length, and they compare the same stored or not).
+   */
+  protected static final Charset STRING_CHARSET = StandardCharsets.ISO_8859_1;
+
   // --------------------------------------------------------------------------
 
   /** The type of the key value. */
@@ -23,27 +33,67 @@ public class SearchKey implements Comparable<SearchKey> {
   /** The size of the key value (in bytes). */
   protected short size;
 
-  /** The actual key value. */
-  protected Object value;
+  /** The key value, for integer keys. */
+  protected int ivalue;
+
+  /** The key value, for float keys. */
+  protected float fvalue;
+
+  /** The key value, for string keys. */
+  protected String svalue;
 
   // --------------------------------------------------------------------------
 
   /**
    * Constructs a new integer search key.
    */
-  public SearchKey(Integer value) {
+  public SearchKey(int value) {
     this.type = INTEGER_KEY;
     this.size = Integer.SIZE / Byte.SIZE;
-    this.value = value;
+    this.ivalue = value;
   }
 
   /**
    * Constructs a new float search key.
    */
-  public SearchKey(Float value) {
+  public SearchKey(float value) {
     this.type = FLOAT_KEY;
     this.size = Float.SIZE / Byte.SIZE;
-    this.value = value;
+    this.fvalue = value;
+  }
+
+  /**
+   * Rejects a long value, rather than let it be widened to a float key (and
+   * lose precision); construct an int key explicitly instead.
+   *
+   * @throws IllegalArgumentException always
+   */
+  public SearchKey(long value) {
+    throw new IllegalArgumentException("invalid key value type");
+  }
+
+  /**
+   * Rejects a char value, rather than let it be widened to an int key;
+   * construct a string key instead.
+   *
+   * @throws IllegalArgumentException always
+   */
+  public SearchKey(char value) {
+    throw new IllegalArgumentException("invalid key value type");
+  }
+
+  /**
+   * Constructs a new integer search key.
+   */
+  public SearchKey(Integer value) {
+    this(value.intValue());
+  }
+
+  /**
+   * Constructs a new float search key.
+   */
+  public SearchKey(Float value) {
+    this(value.floatValue());
   }
 
   /**
@@ -52,7 +102,7 @@ public class SearchKey implements Comparable<SearchKey> {
   public SearchKey(String value) {
     this.type = STRING_KEY;
     this.size = (short) value.length();
-    this.value = value;
+    this.svalue = value;
   }
 
   /**
@@ -66,21 +116,21 @@ public class SearchKey implements Comparable<SearchKey> {
     if (value instanceof Integer) {
       this.type = INTEGER_KEY;
       this.size = Integer.SIZE / Byte.SIZE;
-      this.value = value;
+      this.ivalue = ((Integer) value).intValue();
     }
 
     // Float key?
     else if (value instanceof Float) {
       this.type = FLOAT_KEY;
       this.size = Float.SIZE / Byte.SIZE;
-      this.value = value;
+      this.fvalue = ((Float) value).floatValue();
     }
 
     // String key?
     else if (value instanceof String) {
       this.type = STRING_KEY;
       this.size = (short) ((String) value).length();
-      this.value = value;
+      this.svalue = (String) value;
     }
 
     // otherwise, none of the above
@@ -95,22 +145,12 @@ public class SearchKey implements Comparable<SearchKey> {
    */
   public SearchKey(SearchKey key) {
 
-    // copy the type and size
+    // copy the type, size and value (strings are immutable)
     this.type = key.type;
     this.size = key.size;
-
-    // copy the value
-    switch (key.type) {
-      case INTEGER_KEY:
-        this.value = new Integer((Integer) key.value);
-        break;
-      case FLOAT_KEY:
-        this.value = new Float((Float) key.value);
-        break;
-      case STRING_KEY:
-        this.value = new String((String) key.value);
-        break;
-    }
+    this.ivalue = key.ivalue;
+    this.fvalue = key.fvalue;
+    this.svalue = key.svalue;
 
   } // public SearchKey(SearchKey key)
 
@@ -130,13 +170,15 @@ public class SearchKey implements Comparable<SearchKey> {
     // extract the key value
     switch (type) {
       case INTEGER_KEY:
-        value = new Integer(Convert.getIntValue(offset + 3, data));
+        ivalue = Convert.getIntValue(offset + 3, data);
         break;
       case FLOAT_KEY:
-        value = new Float(Convert.getFloatValue(offset + 3, data));
+        fvalue = Convert.getFloatValue(offset + 3, data);
         break;
       case STRING_KEY:
-        value = Convert.getStringValue(offset + 3, data, size);
+        // exactly as written (i.e. not trimmed), so it hashes and compares
+        // the same as the key that was inserted
+        svalue = new String(data, offset + 3, size, STRING_CHARSET);
         break;
     }
 
@@ -156,13 +198,13 @@ public class SearchKey implements Comparable<SearchKey> {
     // write the key value
     switch (type) {
       case INTEGER_KEY:
-        Convert.setIntValue((Integer) value, offset + 3, data);
+        Convert.setIntValue(ivalue, offset + 3, data);
         break;
       case FLOAT_KEY:
-        Convert.setFloatValue((Float) value, offset + 3, data);
+        Convert.setFloatValue(fvalue, offset + 3, data);
         break;
       case STRING_KEY:
-        Convert.setStringValue((String) value, offset + 3, data);
+        System.arraycopy(svalue.getBytes(STRING_CHARSET), 0, data, offset + 3, size);
         break;
     }
 
@@ -176,6 +218,14 @@ public class SearchKey implements Comparable<SearchKey> {
 	return (short) (3 + size);
   }
 
+  /**
+   * Gets the total length of the search key stored in the given data buffer,
+   * without constructing it.
+   */
+  public static short getLength(byte[] data, int offset) {
+    return (short) (3 + Convert.getShortValue(offset + 1, data));
+  }
+
   // --------------------------------------------------------------------------
 
   /**
@@ -190,21 +240,19 @@ public class SearchKey implements Comparable<SearchKey> {
 
       default:
       case INTEGER_KEY:
-        int ikey = ((Integer) value).intValue();
-        return ikey & mask;
+        return ivalue & mask;
 
       case FLOAT_KEY:
-        int fkey = Float.floatToIntBits((Float) value);
+        int fkey = Float.floatToIntBits(fvalue);
         return fkey & mask;
 
       case STRING_KEY:
 
-        // reverse the first four bytes of the string
-        byte[] s = ((String) value).getBytes();
+        // reverse the first four bytes (i.e. characters) of the string
         int skey = 0;
-        int len = s.length > 4 ? 4 : s.length;
+        int len = svalue.length() > 4 ? 4 : svalue.length();
         for (int i = 0; i < len; i++) {
-          skey |= (s[i] << (i * Byte.SIZE));
+          skey |= ((byte) svalue.charAt(i) << (i * Byte.SIZE));
         }
         return skey & mask;
 
@@ -212,6 +260,63 @@ public class SearchKey implements Comparable<SearchKey> {
 
   } // public int getHash(int depth)
 
+  /**
+   * Gets the hash value for the search key, given the hash function (see
+   * HashFunction) and the depth (i.e. number of bits to consider).
+   */
+  public int getHash(int function, int depth) {
+
+    if (function == HashFunction.DEFAULT) {
+      return getHash(depth);
+    }
+
+    // apply the appropriate calculation
+    int mask = (1 << depth) - 1;
+    switch (type) {
+
+      default:
+      case INTEGER_KEY:
+        return HashFunction.murmur3(ivalue) & mask;
+
+      case FLOAT_KEY:
+        return HashFunction.murmur3(Float.floatToIntBits(fvalue)) & mask;
+
+      case STRING_KEY:
+        return HashFunction.murmur3(svalue) & mask;
+
+    } // switch
+
+  } // public int getHash(int function, int depth)
+
+  /**
+   * Gets the hash value for the search key stored in the given data buffer,
+   * as getHash(function, depth) would for the key itself, but reading the
+   * serialized value in place (i.e. without constructing any objects).
+   */
+  public static int getHash(byte[] data, int offset, int function, int depth) {
+
+    // the default hash reads too few bytes to be worth repeating here
+    if (function == HashFunction.DEFAULT) {
+      return new SearchKey(data, (short) offset).getHash(depth);
+    }
+
+    // apply the appropriate calculation
+    int mask = (1 << depth) - 1;
+    switch (data[offset]) {
+
+      default:
+      case INTEGER_KEY:
+      case FLOAT_KEY:
+        return HashFunction.murmur3(Convert.getIntValue(offset + 3, data)) & mask;
+
+      case STRING_KEY:
+        int len = Convert.getShortValue(offset + 1, data);
+        return HashFunction.murmur3(data, offset + 3, len) & mask;
+
+    } // switch
+
+  } // public static int getHash(byte[] data, int offset, int function, int depth)
+
   // --------------------------------------------------------------------------
 
   /**
@@ -223,43 +328,67 @@ public class SearchKey implements Comparable<SearchKey> {
    */
  public int compareTo(SearchKey key) {
 
-    // Integer comparison
-    if (value instanceof Integer) {
-      if (key.value instanceof Integer) {
+    if (key.type != type) {
+      throw new IllegalArgumentException("search keys are not comparable");
+    }
 
-        Integer ikey1 = (Integer) this.value;
-        Integer ikey2 = (Integer) key.value;
-        return ikey1.compareTo(ikey2);
+    switch (type) {
 
-      } else {
-        throw new IllegalArgumentException("search keys are not comparable");
-      }
-    }
+      case INTEGER_KEY:
+        return (ivalue < key.ivalue) ? -1 : ((ivalue == key.ivalue) ? 0 : 1);
 
-    // Float comparison
-    if (value instanceof Float) {
-      if (key.value instanceof Float) {
+      case FLOAT_KEY:
+        return Float.compare(fvalue, key.fvalue);
 
-        Float fkey1 = (Float) this.value;
-        Float fkey2 = (Float) key.value;
-        return fkey1.compareTo(fkey2);
+      default:
+      case STRING_KEY:
+        return svalue.compareTo(key.svalue);
 
-      } else {
-        throw new IllegalArgumentException("search keys are not comparable");
-      }
-    }
+    } // switch
 
-    // default: String comparison
-    if (key.value instanceof String) {
+  } // public int compareTo(SearchKey key)
 
-      String skey1 = (String) this.value;
-      String skey2 = (String) key.value;
-      return skey1.compareTo(skey2);
+  /**
+   * Compares this search key to the one stored in the given data buffer,
+   * reading the serialized type, size and value in place (i.e. without
+   * constructing any objects).
+   * 
+   * @return a negative integer, zero, or a positive integer as this object is
+   *         less than, equal to, or greater than the stored key
+   * @throws IllegalArgumentException if the search keys are not comparable
+   */
+  public int compareTo(byte[] data, int offset) {
 
-    } else {
+    if (data[offset] != type) {
       throw new IllegalArgumentException("search keys are not comparable");
     }
 
-  } // public int compareTo(SearchKey key)
+    switch (type) {
+
+      case INTEGER_KEY:
+        int ikey = Convert.getIntValue(offset + 3, data);
+        return (ivalue < ikey) ? -1 : ((ivalue == ikey) ? 0 : 1);
+
+      case FLOAT_KEY:
+        return Float.compare(fvalue, Convert.getFloatValue(offset + 3, data));
+
+      default:
+      case STRING_KEY:
+
+        // compare character by character, then by length
+        int len1 = svalue.length();
+        int len2 = Convert.getShortValue(offset + 1, data);
+        int len = (len1 < len2) ? len1 : len2;
+        for (int i = 0, pos = offset + 3; i < len; i++, pos++) {
+          int diff = svalue.charAt(i) - (data[pos] & 0xff);
+          if (diff != 0) {
+            return diff;
+          }
+        }
+        return len1 - len2;
+
+    } // switch
+
+  } // public int compareTo(byte[] data, int offset)
 
 } // public class SearchKey implements Comparable<SearchKey>
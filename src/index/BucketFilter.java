@@ -0,0 +1,168 @@
+package index;
+
+import global.HashFunction;
+import global.SearchKey;
+
+import java.util.Arrays;
+
+/**
+ * A Bloom filter of the search keys in one bucket, kept in memory alongside
+ * the directory, so that looking up a key that is not in the bucket usually
+ * reads none of its pages.  Keys are never removed, so deleted keys may still
+ * be reported as present; once more keys are added than the filter was sized
+ * for, it is full, and should be built again from the bucket.
+ */
+class BucketFilter {
+
+  /** Bits per key the filter is sized for (giving about 2% false positives). */
+  protected static final int BITS_PER_KEY = 10;
+
+  /** Number of bits set per key. */
+  protected static final int HASHES = 3;
+
+  /** Smallest number of bits in a filter. */
+  protected static final int MIN_BITS = 64;
+
+  // --------------------------------------------------------------------------
+
+  /** The bits of the filter, a power of two of them. */
+  protected final long[] bits;
+
+  /** Number of keys the filter has room for. */
+  protected final int capacity;
+
+  /** Number of keys added. */
+  protected int count;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty filter sized for the given number of keys, with room
+   * for as many again.
+   */
+  public BucketFilter(int keys) {
+
+    int size = MIN_BITS;
+    while (size < 2L * keys * BITS_PER_KEY && size < (1 << 30)) {
+      size <<= 1;
+    }
+    bits = new long[size / 64];
+    capacity = size / BITS_PER_KEY;
+    count = 0;
+
+  } // public BucketFilter(int keys)
+
+  /**
+   * Adds the given key to the filter.
+   */
+  public void add(SearchKey key) {
+    addHash(key.getHash(HashFunction.MURMUR3, 31));
+  }
+
+  /**
+   * Adds the key with the given hash value to the filter, i.e. its hash
+   * under MURMUR3 over 31 bits (as from SortedPage.getKeyHash), so that the
+   * filter can be built from the keys' stored bytes.
+   */
+  public void addHash(int keyHash) {
+
+    int hash = hash(keyHash);
+    int step = HashFunction.murmur3(hash) | 1;
+    int mask = bits.length * 64 - 1;
+    for (int i = 0; i < HASHES; i++, hash += step) {
+      bits[(hash & mask) >>> 6] |= 1L << hash;
+    }
+    count++;
+
+  } // public void addHash(int keyHash)
+
+  /**
+   * True if the given key may have been added to the filter; false if it
+   * definitely was not.
+   */
+  public boolean mightContain(SearchKey key) {
+
+    int hash = hash(key);
+    int step = HashFunction.murmur3(hash) | 1;
+    int mask = bits.length * 64 - 1;
+    for (int i = 0; i < HASHES; i++, hash += step) {
+      if ((bits[(hash & mask) >>> 6] & (1L << hash)) == 0) {
+        return false;
+      }
+    }
+    return true;
+
+  } // public boolean mightContain(SearchKey key)
+
+  /**
+   * True if more keys have been added than the filter was sized for.
+   */
+  public boolean isFull() {
+    return (count > capacity);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Hashes the given key over all of its bytes, and scrambles the result
+   * again, so that the keys of a bucket (which share their low bits under
+   * the index's hash function) still differ in every bit.
+   */
+  protected static int hash(SearchKey key) {
+    return hash(key.getHash(HashFunction.MURMUR3, 31));
+  }
+
+  /**
+   * Scrambles the given key hash (see hash(SearchKey)).
+   */
+  protected static int hash(int keyHash) {
+    return HashFunction.murmur3(keyHash);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Collects the key hashes of a bucket's pages while they are read for
+   * another reason (e.g. a scan), to build the bucket's filter once all of
+   * them have been, without reading them again.
+   */
+  static class Builder {
+
+    /** Hashes of the keys collected so far. */
+    protected int[] hashes = new int[16];
+
+    /** Number of keys collected so far. */
+    protected int count;
+
+    /**
+     * Collects the keys of the given page, from their stored bytes (each
+     * one once per page).
+     */
+    public void addPage(SortedPage page) {
+
+      int keys = page.getKeyCount();
+      if (count + keys > hashes.length) {
+        hashes = Arrays.copyOf(hashes, Math.max(hashes.length * 2, count + keys));
+      }
+      for (int i = 0; i < keys; i++) {
+        hashes[count++] = page.getKeyHash(i, HashFunction.MURMUR3, 31);
+      }
+
+    } // public void addPage(SortedPage page)
+
+    /**
+     * Builds a filter of the keys collected.
+     */
+    public BucketFilter build() {
+
+      BucketFilter filter = new BucketFilter(count);
+      for (int i = 0; i < count; i++) {
+        filter.addHash(hashes[i]);
+      }
+      return filter;
+
+    } // public BucketFilter build()
+
+  } // static class Builder
+
+} // class BucketFilter
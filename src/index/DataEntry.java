@@ -6,7 +6,8 @@ import global.SearchKey;
 /**
  * Records stored in an index file; using the textbook's "Alternative 2" (see
  * page 276) to allow for multiple indexes. Duplicate keys result in duplicate
- * DataEntry instances.
+ * DataEntry instances, though on a page their key is stored only once (see
+ * SortedPage).
  */
 class DataEntry {
 
@@ -22,7 +23,7 @@ class DataEntry {
    * Constructs a DataEntry from the given values.
    */
   public DataEntry(SearchKey key, RID rid) {
-    this.key = new SearchKey(key);
+    this.key = key; // search keys are immutable
     this.rid = new RID(rid.pageno, rid.slotno);
   }
 
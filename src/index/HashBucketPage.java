@@ -1,14 +1,51 @@
 package index;
 
+import diskmgr.Extent;
 import global.Minibase;
 import global.PageId;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An object in this class is a page in a linked list.
  * The entire linked list is a hash table bucket.
+ * Whenever the whole list is followed (i.e. counted or emptied), its later
+ * pages are read ahead.
  */
 class HashBucketPage extends SortedPage {
 
+  /**
+   * Bytes taken up by the last insert on the page of the list it changed,
+   * or freed (as a negative number) by the last delete or removal.
+   */
+  protected int spaceChange;
+
+  /**
+   * Id of the overflow page the last deleteEntry unlinked but did not free
+   * (null if none).
+   */
+  protected PageId unlinkedPage;
+
+  /**
+   * Gets the number of bytes the last insertEntry took up on the page of the
+   * list it changed, or that the last deleteEntry (or removeAllEntries) freed,
+   * as a negative number.  With posting lists, this is much less than an
+   * entry's length for a duplicate key.
+   */
+  public int getSpaceChange() {
+	  return spaceChange;
+  }
+
+  /**
+   * Gets the id of the overflow page that the last deleteEntry(entry, false)
+   * emptied and unlinked from the list, which the caller must free, or null
+   * if it left every page in the list.
+   */
+  public PageId getUnlinkedPage() {
+	  return unlinkedPage;
+  }
+
   /**
    * Gets the number of entries in this page and later
    * (overflow) pages in the list.
@@ -26,11 +63,12 @@ class HashBucketPage extends SortedPage {
 	  //2. count entries in next pages if any: SortedPage.getNextPage >> NEXT_PAGE = 4;
 	  PageId pageId = getNextPage();
 	  SortedPage nextPage = new SortedPage();
+	  ReadAhead.chain(pageId, ACCESS_ONCE);
 	  
 	  while(pageId.pid != INVALID_PAGEID) {
 		  
 		  //pin and count entries
-		  Minibase.BufferManager.pinPage(pageId, nextPage, PIN_DISKIO);
+		  Minibase.BufferManager.pinPage(pageId, nextPage, PIN_DISKIO, ACCESS_ONCE);
 		  count += nextPage.getEntryCount();
 		  
 		  //move to next page
@@ -45,7 +83,7 @@ class HashBucketPage extends SortedPage {
 
   /**
    * Inserts a new data entry into this page. If there is no room
-   * on this page, recursively inserts in later pages of the list.  
+   * on this page, inserts in the first later page of the list with room.
    * If necessary, creates a new page at the end of the list.
    * Does not worry about keeping order between entries in different pages.
    * <br><br>
@@ -55,35 +93,70 @@ class HashBucketPage extends SortedPage {
    * @return true if inserting made this page dirty, false otherwise
    */
   public boolean insertEntry(DataEntry entry) {
+	  return insertEntry(entry, null);
+  }
+
+  /**
+   * Inserts a new data entry into this page, as above; a new page at the end
+   * of the list is allocated from the given extent (unless null), so that
+   * the pages of a list are close together on disk.
+   *
+   * @return true if inserting made this page dirty, false otherwise
+   */
+  public boolean insertEntry(DataEntry entry, Extent extent) {
 
 	  //1. try to insert an entry into the primary page
+	  int free = getFreeSpace();
 	  try {
 		  super.insertEntry(entry);
+		  spaceChange = free - getFreeSpace();
 		  return true;
 	  }
-	  //2.1 try to insert in later pages of the list 
+	  //2.1 try to insert in later pages of the list, one page at a time
 	  //OR 2.2 create a new page and insert the data entry into it
 	  catch(IllegalStateException ex) {
 		  
+		  SortedPage lastPage = this;
+		  PageId lastPageId = null;
 		  PageId nextPageId = getNextPage();
-		  HashBucketPage nextPage = new HashBucketPage();
-		  
-	      if (nextPageId.pid != INVALID_PAGEID)
-	      {
-	        Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
-	        boolean dirty = nextPage.insertEntry(entry);
-	        Minibase.BufferManager.unpinPage(nextPageId, dirty);
-	        return false;
-	      }
-	      //create a new page and add the data entry to it 
-	      nextPageId = Minibase.BufferManager.newPage(nextPage, 1);
-	      setNextPage(nextPageId);
-	      boolean dirty = nextPage.insertEntry(entry);
-	      Minibase.BufferManager.unpinPage(nextPageId, dirty);
-	      return true;
+		  SortedPage nextPage = new SortedPage();
+
+		  while (nextPageId.pid != INVALID_PAGEID) {
+
+			  Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
+			  if (lastPageId != null) {
+				  Minibase.BufferManager.unpinPage(lastPageId, UNPIN_CLEAN);
+			  }
+			  try {
+				  free = nextPage.getFreeSpace();
+				  nextPage.insertEntry(entry);
+				  spaceChange = free - nextPage.getFreeSpace();
+				  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_DIRTY);
+				  return false;
+			  } catch (IllegalStateException exc) {
+				  lastPage = nextPage;
+				  lastPageId = nextPageId;
+				  nextPage = new SortedPage();
+				  nextPageId = lastPage.getNextPage();
+			  }
+		  }
+
+		  //create a new page at the end of the list and add the data entry to it
+		  nextPageId = (extent != null) ? Minibase.BufferManager.newPage(nextPage, extent)
+				  : Minibase.BufferManager.newPage(nextPage, 1);
+		  lastPage.setNextPage(nextPageId);
+		  free = nextPage.getFreeSpace();
+		  nextPage.insertEntry(entry);
+		  spaceChange = free - nextPage.getFreeSpace();
+		  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_DIRTY);
+		  if (lastPageId != null) {
+			  Minibase.BufferManager.unpinPage(lastPageId, UNPIN_DIRTY);
+			  return false;
+		  }
+		  return true;
 	  }	 
 
-  } // public boolean insertEntry(DataEntry entry)
+  } // public boolean insertEntry(DataEntry entry, Extent extent)
 
   /**
    * Deletes a data entry from this page.  If a page in the list 
@@ -96,43 +169,150 @@ class HashBucketPage extends SortedPage {
    * @throws IllegalArgumentException if the entry is not in the list.
    */
   public boolean deleteEntry(DataEntry entry) {
+	  return deleteEntry(entry, true);
+  }
+
+  /**
+   * Deletes a data entry from this page, as above, but only frees a page
+   * that becomes empty if freeEmpty is true; otherwise the page is just unlinked
+   * from the list, and left for the caller to free once no other thread may
+   * be reading it (see getUnlinkedPage).
+   * 
+   * @return true if deleting made this page dirty, false otherwise
+   * @throws IllegalArgumentException if the entry is not in the list.
+   */
+  public boolean deleteEntry(DataEntry entry, boolean freeEmpty) {
 
 	  //1. try to delete the data entry from the primary page
+	  unlinkedPage = null;
+	  int free = getFreeSpace();
 	  try {
 		  super.deleteEntry(entry);
+		  spaceChange = free - getFreeSpace();
 		  return true;
 	  }
 	  //2. if the entry does not exist in the primary page 
-	  //==> check next pages in the list
+	  //==> check next pages in the list, keeping the previous page pinned
 	  catch(IllegalArgumentException ex) {
 
+		  SortedPage prevPage = this;
+		  PageId prevPageId = null;
 		  PageId nextPageId = getNextPage();
-	      HashBucketPage nextPage = new HashBucketPage();
-		  
-	      if (nextPageId.pid != INVALID_PAGEID)
-	      {
-	        Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
-	        boolean dirty = nextPage.deleteEntry(entry);
-
-
-	        //check if the page is empty to 1.delete it and 2.set the next page
-	        if (nextPage.getEntryCount() < 1)
-	        {
-	          setNextPage(nextPage.getNextPage());
-	          Minibase.BufferManager.unpinPage(nextPageId, dirty);
-	          Minibase.BufferManager.freePage(nextPageId);
-	          return true;
-	        } else {
-	        	Minibase.BufferManager.unpinPage(nextPageId, dirty);
-	 	        return false;
-	        }
-	       
-	      }
-	      
-	      throw ex;
+		  SortedPage nextPage = new SortedPage();
+
+		  while (nextPageId.pid != INVALID_PAGEID) {
+
+			  Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
+			  try {
+				  free = nextPage.getFreeSpace();
+				  nextPage.deleteEntry(entry);
+				  spaceChange = free - nextPage.getFreeSpace();
+			  } catch (IllegalArgumentException exc) {
+				  if (prevPageId != null) {
+					  Minibase.BufferManager.unpinPage(prevPageId, UNPIN_CLEAN);
+				  }
+				  prevPage = nextPage;
+				  prevPageId = nextPageId;
+				  nextPage = new SortedPage();
+				  nextPageId = prevPage.getNextPage();
+				  continue;
+			  }
+
+			  //check if the page is empty to 1.delete it and 2.set the next page
+			  boolean unlinked = (nextPage.getKeyCount() < 1);
+			  if (unlinked) {
+				  prevPage.setNextPage(nextPage.getNextPage());
+				  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_DIRTY);
+				  if (freeEmpty) {
+					  Minibase.BufferManager.freePage(nextPageId);
+				  } else {
+					  unlinkedPage = nextPageId;
+				  }
+			  } else {
+				  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_DIRTY);
+			  }
+			  if (prevPageId != null) {
+				  Minibase.BufferManager.unpinPage(prevPageId, unlinked);
+				  return false;
+			  }
+			  return unlinked;
+		  }
+
+		  if (prevPageId != null) {
+			  Minibase.BufferManager.unpinPage(prevPageId, UNPIN_CLEAN);
+		  }
+		  throw ex;
+	  }
+
+  } // public boolean deleteEntry(DataEntry entry, boolean freeEmpty)
+
+  /**
+   * Removes every data entry from this page and later (overflow) pages in
+   * the list, freeing the overflow pages and leaving this page empty.
+   * <br><br>
+   * To empty a bucket (i.e. when splitting it), apply removeAllEntries to the
+   * primary page of the bucket.
+   * 
+   * @return the data entries that were removed
+   */
+  public ArrayList<DataEntry> removeAllEntries() {
+
+	  ArrayList<DataEntry> entries = new ArrayList<DataEntry>();
+
+	  //1. collect the entries of the primary page
+	  addEntriesTo(entries);
+	  int freed = getUsedSpace();
+
+	  //2. collect the entries of the overflow pages, and free them
+	  PageId pageId = getNextPage();
+	  SortedPage nextPage = new SortedPage();
+	  ReadAhead.chain(pageId, ACCESS_ONCE);
+
+	  while (pageId.pid != INVALID_PAGEID) {
+
+		  Minibase.BufferManager.pinPage(pageId, nextPage, PIN_DISKIO, ACCESS_ONCE);
+		  nextPage.addEntriesTo(entries);
+		  freed += nextPage.getUsedSpace();
+
+		  PageId nextPageId = nextPage.getNextPage();
+		  Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+		  Minibase.BufferManager.freePage(pageId);
+		  pageId = nextPageId;
 	  }
 
+	  //3. reset the primary page
+	  initDefaults();
+	  spaceChange = -freed;
+	  return entries;
+
+  } // public ArrayList<DataEntry> removeAllEntries()
+
+  /**
+   * Packs the given data entries, which must be sorted by key, into new
+   * pages, filling each one before starting the next (and continuing a
+   * key's posting list on the next page if needed).  The pages are not in
+   * the buffer pool (so any thread may build them) and are not yet linked.
+   * <br><br>
+   * To bulk load a bucket, write the pages in order, starting with its
+   * primary page.
+   */
+  public static ArrayList<SortedPage> packEntries(List<DataEntry> entries) {
+
+	  ArrayList<SortedPage> pages = new ArrayList<SortedPage>();
+	  SortedPage lastPage = new HashBucketPage();
+	  pages.add(lastPage);
+
+	  for (DataEntry entry : entries) {
+
+		  //start a new page when the last one is full
+		  if (lastPage.getFreeSpace() < lastPage.getSpaceNeeded(entry)) {
+			  lastPage = new SortedPage();
+			  pages.add(lastPage);
+		  }
+		  lastPage.appendEntry(entry);
+	  }
+	  return pages;
 
-  } // public boolean deleteEntry(DataEntry entry)
+  } // public static ArrayList<SortedPage> packEntries(List<DataEntry> entries)
 
 } // class HashBucketPage extends SortedPage
@@ -5,6 +5,9 @@ import global.PageId;
 
 /**
  * Hash directory pages simply contain page ids to data pages (i.e. buckets).
+ * The first page of the directory also describes the index as a whole, in
+ * header fields following the next page id, so it holds fewer entries; the
+ * later pages only have the entry count and next page id (see setHead).
  */
 class HashDirPage extends Page {
 
@@ -14,6 +17,27 @@ class HashDirPage extends Page {
   /** Offset of the next page id. */
   protected static final int NEXT_PAGE = 2;
 
+  /** Offset of the index type (i.e. static or extendible hashing). */
+  protected static final int INDEX_TYPE = 6;
+
+  /** Offset of the global depth of the directory (or linear hashing level). */
+  protected static final int GLOBAL_DEPTH = 7;
+
+  /** Offset of the next bucket to split (linear hashing only). */
+  protected static final int SPLIT_PTR = 8;
+
+  /** Offset of the space used by data entries (linear hashing only). */
+  protected static final int DATA_SIZE = 12;
+
+  /** Offset of the load factor that triggers a split (linear hashing only). */
+  protected static final int LOAD_FACTOR = 16;
+
+  /** Offset of the hash function applied to search keys. */
+  protected static final int HASH_FUNC = 18;
+
+  /** Offset of the format of the index file (see CURRENT_FORMAT). */
+  protected static final int FORMAT_ID = 19;
+
   // --------------------------------------------------------------------------
 
   /** Relative offset of an entry's page id. */
@@ -24,35 +48,79 @@ class HashDirPage extends Page {
 
   // --------------------------------------------------------------------------
 
-  /** Total size of the header fields. */
+  /** Total size of the header fields of a page after the first. */
   protected static final int HEADER_SIZE = 6;
 
+  /** Total size of the header fields of the first page. */
+  protected static final int HEAD_SIZE = 23;
+
   /** The size of a directory entry. */
   protected static final int ENTRY_SIZE = 5;
 
+  /** Maximum number of entries on a page after the first. */
   protected static final int MAX_ENTRIES = (PAGE_SIZE - HEADER_SIZE)
       / ENTRY_SIZE;
 
+  /** Maximum number of entries on the first page. */
+  protected static final int HEAD_ENTRIES = (PAGE_SIZE - HEAD_SIZE)
+      / ENTRY_SIZE;
+
   /** Initial directory size (in buckets). */
   protected static final short INIT_SIZE = 128;
 
+  /** Initial global depth, i.e. log2 of the initial directory size. */
+  protected static final byte INIT_DEPTH = 7;
+
+  /**
+   * Format of the index files written, stored on the first directory page:
+   * "HX" followed by a version number, to be changed with the layout of the
+   * header fields or entries.  Files of the original format (with only the
+   * entry count and next page id in the header) have directory entries
+   * where it is stored, and never hold it.
+   */
+  protected static final int CURRENT_FORMAT = 0x48580002;
+
+  // --------------------------------------------------------------------------
+
+  /** Offset of the first entry (i.e. HEAD_SIZE on the first page). */
+  protected int entryBase = HEADER_SIZE;
+
   // --------------------------------------------------------------------------
 
   /**
-   * Default constructor; creates a directory page with default values.
+   * Default constructor; creates a directory page with default values, to
+   * follow the first page of the directory.
    */
   public HashDirPage() {
+    this(false);
+  }
+
+  /**
+   * Creates a directory page with default values, as the first page of the
+   * directory if head is true.
+   */
+  public HashDirPage(boolean head) {
     super();
+    setHead(head);
     initDefaults();
   }
 
   /**
-   * Constructor that wraps an existing directory page.
+   * Constructor that wraps an existing directory page (after the first one,
+   * unless setHead is called).
    */
   public HashDirPage(Page page) {
     super(page.getData());
   }
 
+  /**
+   * Sets whether this is the first page of the directory, i.e. where its
+   * entries start; to be called whenever another page is pinned into it.
+   */
+  public void setHead(boolean head) {
+    entryBase = head ? HEAD_SIZE : HEADER_SIZE;
+  }
+
   /**
    * Initializes the directory page with default values.
    */
@@ -64,15 +132,56 @@ class HashDirPage extends Page {
     // set next page id to invalid
     setIntValue(INVALID_PAGEID, NEXT_PAGE);
 
-    // set each entry's pageid to invalid
-    for (int i = 0; i < MAX_ENTRIES; i++) {
-      setIntValue(INVALID_PAGEID, HEADER_SIZE + i * ENTRY_SIZE + IX_PAGEID);
+    // initialize the index-wide header fields, on the first page
+    if (entryBase == HEAD_SIZE) {
+      data[INDEX_TYPE] = 0;
+      data[GLOBAL_DEPTH] = INIT_DEPTH;
+      setIntValue(0, SPLIT_PTR);
+      setIntValue(0, DATA_SIZE);
+      setShortValue((short) 0, LOAD_FACTOR);
+      data[HASH_FUNC] = 0;
+      setIntValue(CURRENT_FORMAT, FORMAT_ID);
+    }
+
+    // set each entry's pageid to invalid and its local depth to the initial
+    for (int i = 0; i < getMaxEntries(); i++) {
+      setIntValue(INVALID_PAGEID, entryBase + i * ENTRY_SIZE + IX_PAGEID);
+      data[entryBase + i * ENTRY_SIZE + IX_DEPTH] = INIT_DEPTH;
     }
 
   } // protected void initDefaults()
 
   // --------------------------------------------------------------------------
 
+  /**
+   * Gets the maximum number of entries on the page.
+   */
+  public int getMaxEntries() {
+    return (PAGE_SIZE - entryBase) / ENTRY_SIZE;
+  }
+
+  /**
+   * Gets the number of the directory page holding the given entry of the
+   * whole directory.
+   */
+  public static int getPageOf(int entry) {
+    if (entry < HEAD_ENTRIES) {
+      return 0;
+    }
+    return 1 + (entry - HEAD_ENTRIES) / MAX_ENTRIES;
+  }
+
+  /**
+   * Gets the number of the first entry of the whole directory held on the
+   * given directory page.
+   */
+  public static int getFirstEntry(int page) {
+    if (page == 0) {
+      return 0;
+    }
+    return HEAD_ENTRIES + (page - 1) * MAX_ENTRIES;
+  }
+
   /**
    * Gets the number of entries on the page.
    */
@@ -80,6 +189,13 @@ class HashDirPage extends Page {
     return getShortValue(ENTRY_CNT);
   }
 
+  /**
+   * Sets the number of entries on the page.
+   */
+  public void setEntryCount(short count) {
+    setShortValue(count, ENTRY_CNT);
+  }
+
   /**
    * Gets the next page's id.
    */
@@ -94,34 +210,128 @@ class HashDirPage extends Page {
     setIntValue(pageno.pid, NEXT_PAGE);
   }
 
+  /**
+   * Gets the type of the index (first directory page only).
+   */
+  public byte getIndexType() {
+    return data[INDEX_TYPE];
+  }
+
+  /**
+   * Sets the type of the index (first directory page only).
+   */
+  public void setIndexType(byte type) {
+    data[INDEX_TYPE] = type;
+  }
+
+  /**
+   * Gets the global depth of the directory (first directory page only).
+   */
+  public byte getGlobalDepth() {
+    return data[GLOBAL_DEPTH];
+  }
+
+  /**
+   * Sets the global depth of the directory (first directory page only).
+   */
+  public void setGlobalDepth(byte depth) {
+    data[GLOBAL_DEPTH] = depth;
+  }
+
+  /**
+   * Gets the number of the next bucket to split (first directory page only).
+   */
+  public int getSplitPointer() {
+    return getIntValue(SPLIT_PTR);
+  }
+
+  /**
+   * Sets the number of the next bucket to split (first directory page only).
+   */
+  public void setSplitPointer(int bucket) {
+    setIntValue(bucket, SPLIT_PTR);
+  }
+
+  /**
+   * Gets the space used by data entries, in bytes (first directory page only).
+   */
+  public int getDataSize() {
+    return getIntValue(DATA_SIZE);
+  }
+
+  /**
+   * Sets the space used by data entries, in bytes (first directory page only).
+   */
+  public void setDataSize(int size) {
+    setIntValue(size, DATA_SIZE);
+  }
+
+  /**
+   * Gets the load factor, as a percentage, that triggers a split (first
+   * directory page only).
+   */
+  public short getLoadFactor() {
+    return getShortValue(LOAD_FACTOR);
+  }
+
+  /**
+   * Sets the load factor, as a percentage, that triggers a split (first
+   * directory page only).
+   */
+  public void setLoadFactor(short percent) {
+    setShortValue(percent, LOAD_FACTOR);
+  }
+
+  /**
+   * Gets the hash function applied to search keys (first directory page only).
+   */
+  public byte getHashFunction() {
+    return data[HASH_FUNC];
+  }
+
+  /**
+   * Sets the hash function applied to search keys (first directory page only).
+   */
+  public void setHashFunction(byte function) {
+    data[HASH_FUNC] = function;
+  }
+
+  /**
+   * Gets the format of the index file (first directory page only; see
+   * CURRENT_FORMAT).
+   */
+  public int getFormat() {
+    return getIntValue(FORMAT_ID);
+  }
+
   // --------------------------------------------------------------------------
 
   /**
    * Gets the first page id of the bucket for the given hash value.
    */
   public PageId getPageId(int hash) {
-    return new PageId(getIntValue(HEADER_SIZE + hash * ENTRY_SIZE + IX_PAGEID));
+    return new PageId(getIntValue(entryBase + hash * ENTRY_SIZE + IX_PAGEID));
   }
 
   /**
    * Sets the first page id of the bucket for the given hash value.
    */
   public void setPageId(int hash, PageId pageno) {
-    setIntValue(pageno.pid, HEADER_SIZE + hash * ENTRY_SIZE + IX_PAGEID);
+    setIntValue(pageno.pid, entryBase + hash * ENTRY_SIZE + IX_PAGEID);
   }
 
   /**
    * Gets the local depth of the bucket for the given hash value.
    */
   public byte getDepth(int hash) {
-    return data[HEADER_SIZE + hash * ENTRY_SIZE + IX_DEPTH];
+    return data[entryBase + hash * ENTRY_SIZE + IX_DEPTH];
   }
 
   /**
    * Sets the local depth of the bucket for the given hash value.
    */
   public void setDepth(int hash, byte depth) {
-    data[HEADER_SIZE + hash * ENTRY_SIZE + IX_DEPTH] = depth;
+    data[entryBase + hash * ENTRY_SIZE + IX_DEPTH] = depth;
   }
 
 } // class HashDirPage extends Page
@@ -1,26 +1,131 @@
 package index;
 
+import diskmgr.Extent;
 import global.GlobalConst;
+import global.HashFunction;
 import global.Minibase;
 import global.PageId;
 import global.RID;
 import global.SearchKey;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * <h3>Minibase Hash Index</h3>
  * This unclustered index implements static hashing as described on pages 371 to
- * 373 of the textbook (3rd edition).  The index file is a stored as a heapfile.  
+ * 373 of the textbook (3rd edition), or extendible hashing as described on
+ * pages 373 to 379 (see LinearHashIndex for linear hashing).  The index file
+ * is a stored as a heapfile.  Its directory is read into memory when the index
+ * is opened, and changes are written through to the directory pages, so an
+ * index file should only be updated through one HashIndex object at a time.
+ * Along with the directory, a Bloom filter of each bucket's keys is kept in
+ * memory (see BucketFilter), so that looking up a missing key usually reads
+ * none of the bucket's pages.  Each filter is built when its bucket is bulk
+ * loaded, created or split, or else while the bucket is first read through
+ * (by a scan or a latched lookup); until then, lookups read the bucket.
  */
 public class HashIndex implements GlobalConst {
 
+  /** Index type for static hashing, with a fixed number of buckets. */
+  public static final int STATIC = 0;
+
+  /** Index type for extendible hashing, which splits buckets on overflow. */
+  public static final int EXTENDIBLE = 1;
+
+  /** Index type for linear hashing; such indexes are opened as LinearHashIndex. */
+  public static final int LINEAR = 2;
+
+  /** Maximum global depth of an extendible directory. */
+  protected static final int MAX_DEPTH = 16;
+
+  /** Usable space on a bucket page, for sizing buckets. */
+  protected static final int BUCKET_SPACE = PAGE_SIZE - SortedPage.HEADER_SIZE;
+
+  /** Number of bucket latches (a power of two) for concurrent indexes. */
+  protected static final int LATCH_STRIPES = 64;
+
+  /** Optimistic reads of a bucket to try before latching it instead. */
+  protected static final int OPTIMISTIC_TRIES = 3;
+
+  /** Number of pages reserved at a time for the buckets' pages. */
+  protected static final int EXTENT_PAGES = 32;
+
+  /** Orders data entries by key and then RID, for writing them to bucket pages. */
+  protected static final Comparator<DataEntry> KEY_ORDER =
+		  new Comparator<DataEntry>() {
+	  public int compare(DataEntry entry1, DataEntry entry2) {
+		  int cmp = entry1.key.compareTo(entry2.key);
+		  return (cmp != 0) ? cmp : RidList.compare(entry1.rid, entry2.rid);
+	  }
+  };
+
+  // --------------------------------------------------------------------------
+
   /** File name of the hash index. */
   protected String fileName;
 
   /** Page id of the directory. */
   protected PageId headId;
-  
-  //Log2 of the number of buckets - fixed for this simple index
-  protected final int  DEPTH = 7;
+
+  /** Type of the index (i.e. STATIC, EXTENDIBLE, or LINEAR). */
+  protected int type;
+
+  /** Log2 of the number of directory entries; grows with extendible hashing. */
+  protected int globalDepth;
+
+  /** Hash function applied to search keys (see HashFunction). */
+  protected int hashFunction;
+
+  /** Page ids of the directory pages, in the order they are chained. */
+  protected int[] dirIds;
+
+  /** Number of entries in the directory. */
+  protected int dirSize;
+
+  /** In-memory image of the directory: each entry's primary page id. */
+  protected int[] bucketIds;
+
+  /** In-memory image of the directory: each entry's local depth. */
+  protected byte[] depths;
+
+  /** Latch held exclusively while the directory changes (concurrent only). */
+  protected ReentrantReadWriteLock dirLatch;
+
+  /** Latches for the buckets, striped by bucket number (concurrent only). */
+  protected ReentrantReadWriteLock[] bucketLatches;
+
+  /**
+   * Version stamps of the bucket latches' stripes, then of the directory,
+   * which are odd while latched exclusively (concurrent only).
+   */
+  protected AtomicLongArray stamps;
+
+  /** Numbers of optimistic reads in progress, by stripe (concurrent only). */
+  protected AtomicIntegerArray optimisticReaders;
+
+  /** Pages reserved for the buckets, so that their pages are close on disk. */
+  protected Extent extent;
+
+  /** Filters of the buckets' keys, by primary page id (if built yet). */
+  protected ConcurrentHashMap<Integer, BucketFilter> filters;
+
+  /**
+   * Number of keys added to the buckets, so that a filter built over several
+   * calls (see HashScan) is only kept if no key was added meanwhile; only
+   * kept exactly for indexes that are not concurrent.
+   */
+  protected int inserts;
 
   // --------------------------------------------------------------------------
 
@@ -35,8 +140,44 @@ public class HashIndex implements GlobalConst {
    * file's directory.
    */
   public HashIndex(String fileName) {
+	  this(fileName, STATIC);
+  }
+
+  /**
+   * Opens an index file given its name, or creates a new index file of the
+   * given type (i.e. STATIC or EXTENDIBLE) if the name doesn't exist.  The type
+   * of an existing index file is kept in its directory, so the type argument
+   * only applies to new files.
+   *
+   * @throws IllegalArgumentException if the type is invalid, or if the file
+   * is of an unsupported format or a linear hash index (see LinearHashIndex)
+   */
+  public HashIndex(String fileName, int type) {
+	  this(fileName, type, HashFunction.DEFAULT);
+  }
 
+  /**
+   * Opens an index file given its name, or creates a new index file of the
+   * given type that hashes search keys with the given function (see
+   * HashFunction) if the name doesn't exist.  Both are kept in the file's
+   * directory, so the arguments only apply to new files.
+   *
+   * @throws IllegalArgumentException if the type or hash function is invalid,
+   * or if the file is of an unsupported format, has an unknown hash function
+   * or is a linear hash index (see LinearHashIndex)
+   */
+  public HashIndex(String fileName, int type, int hashFunction) {
+
+	  boolean linear = isLinear();
+	  if ((type != STATIC) && (type != EXTENDIBLE) && !(linear && type == LINEAR)) {
+		  throw new IllegalArgumentException("invalid index type");
+	  }
+	  if (!HashFunction.isValid(hashFunction)) {
+		  throw new IllegalArgumentException("invalid hash function");
+	  }
 	  this.fileName=fileName;
+	  this.extent = new Extent(EXTENT_PAGES);
+	  this.filters = new ConcurrentHashMap<Integer, BucketFilter>();
 	  
 	  //1. check fileName
 	  //2.1 get the index file if it is exist by setting the headId
@@ -49,7 +190,9 @@ public class HashIndex implements GlobalConst {
 	  } 
 	  //2.2 create a new index file if the file with the provided name does not exist 
 	  if(!exist){
-		  HashDirPage hDirPage = new HashDirPage();
+		  HashDirPage hDirPage = new HashDirPage(true);
+		  hDirPage.setIndexType((byte) type);
+		  hDirPage.setHashFunction((byte) hashFunction);
 		  headId = Minibase.BufferManager.newPage(hDirPage, 1);
 		  Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
 		  
@@ -59,16 +202,54 @@ public class HashIndex implements GlobalConst {
 		  }
 	  }
 
-  } // public HashIndex(String fileName)
+	  //3. check the format of the file, and load the type, depth and hash
+	  //function from the head of the directory
+	  HashDirPage hDirPage = new HashDirPage(true);
+	  Minibase.BufferManager.pinPage(headId, hDirPage, PIN_DISKIO);
+	  if (hDirPage.getFormat() != HashDirPage.CURRENT_FORMAT) {
+		  Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
+		  throw new IllegalArgumentException("index file is of an unsupported format");
+	  }
+	  this.type = hDirPage.getIndexType();
+	  this.globalDepth = hDirPage.getGlobalDepth();
+	  this.hashFunction = hDirPage.getHashFunction();
+	  Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
+
+	  //the hash functions are a closed set, and keys can't be found with any other
+	  if (!HashFunction.isValid(this.hashFunction)) {
+		  throw new IllegalArgumentException("index file has an unknown hash function");
+	  }
+
+	  if ((this.type == LINEAR) != linear) {
+		  throw new IllegalArgumentException("index file is of another type");
+	  }
+
+	  //4. load the directory entries, which are then kept in memory
+	  loadDirectory();
+
+  } // public HashIndex(String fileName, int type, int hashFunction)
+
+  /**
+   * Releases the pages reserved for the index's buckets (see Extent), so that
+   * they may be allocated as usual.  The index may still be used, reserving
+   * pages again when a bucket next grows; call this when done with a named
+   * index, rather than leaving the pages skipped until it is finalized.
+   */
+  public void close() {
+	  Minibase.DiskManager.release_extent(extent);
+  }
 
   /**
    * Called by the garbage collector when there are no more references to the
-   * object; deletes the index file if it's temporary.
+   * object; deletes the index file if it's temporary (or else releases its
+   * reserved pages, in case it was not closed).
    */
   protected void finalize() throws Throwable {
 
 	  if (fileName==null)
 		  deleteFile();
+	  else
+		  Minibase.DiskManager.release_extent(extent);
 
   } // protected void finalize() throws Throwable
 
@@ -77,46 +258,49 @@ public class HashIndex implements GlobalConst {
    */
   public void deleteFile() {
 	  
-	  //PageId, HashDirPage, and HashBucketPage objects
-	  PageId dirId = new PageId(headId.pid);
-	  HashDirPage hDirPage = new HashDirPage();
 	  SortedPage hBucketPage = new SortedPage();
-	  
-	  //1. delete pages
-	  while (dirId.pid != INVALID_PAGEID) {
-		  
-		  Minibase.BufferManager.pinPage(dirId, hDirPage, PIN_DISKIO);
- 
-		  //loop through the hashDirPages
-		  int count = hDirPage.getEntryCount();
-		  for (int i = 0 ; i < count ; ++i) {
-			  PageId dataId = hDirPage.getPageId(i);
-			  
-			  //loop through the (HashBucketPage\sorted pages) AND 
-			  //deallocate all pages in the bucket
-			  while(dataId.pid != INVALID_PAGEID) {
-				  
-				  Minibase.BufferManager.pinPage(dataId, hBucketPage, PIN_DISKIO);
-				  PageId nextPageId = hBucketPage.getNextPage();
-				  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
-				  Minibase.BufferManager.freePage(dataId);
-				  dataId = nextPageId;
-			  }
+	  latchDirectory(true);
+
+	  //1. delete the buckets' pages
+	  for (int i = 0 ; i < dirSize ; ++i) {
+		  PageId dataId = new PageId(bucketIds[i]);
+
+		  //extendible buckets may be shared; free them from their first entry
+		  if (type != STATIC && i >= (1 << depths[i])) {
+			  continue;
 		  }
 		  
-		  //2. deallocate the Page from the hash directory and move to next page
-		  PageId nextPageId = hDirPage.getNextPage();
-		  
-		  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-		  Minibase.BufferManager .freePage(dirId);
-		  
-		  dirId = nextPageId;
+		  //loop through the (HashBucketPage\sorted pages) AND
+		  //deallocate all pages in the bucket (pinned once, so that they
+		  //don't replace pages in use)
+		  while(dataId.pid != INVALID_PAGEID) {
+
+			  Minibase.BufferManager.pinPage(dataId, hBucketPage, PIN_DISKIO, ACCESS_ONCE);
+			  PageId nextPageId = hBucketPage.getNextPage();
+			  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+			  Minibase.BufferManager.freePage(dataId);
+			  dataId = nextPageId;
+		  }
 	  }
 	  
-	  //3. delete the index file from the library
+	  //2. deallocate the pages of the hash directory
+	  for (int i = 0 ; i < dirIds.length ; ++i) {
+		  Minibase.BufferManager.freePage(new PageId(dirIds[i]));
+	  }
+
+	  //3. delete the index file from the library, and release the pages
+	  //reserved for it
 	  if (fileName!=null){
 		  Minibase.DiskManager.delete_file_entry(fileName);
 	  }
+	  Minibase.DiskManager.release_extent(extent);
+	  filters.clear();
+
+	  //4. forget the directory, so that the pages (which may be reused by
+	  //then) are not freed again when a temporary index is finalized
+	  dirIds = new int[0];
+	  dirSize = 0;
+	  unlatchDirectory(true);
 
   } // public void deleteFile()
 
@@ -134,37 +318,63 @@ public class HashIndex implements GlobalConst {
 		  throw new IllegalArgumentException("The data entry is too large!");
 	  }
 	  
-	  PageId dirPageId = new PageId(headId.pid);
-	  HashDirPage hDirPage = new HashDirPage();
 	  HashBucketPage hdataPage = new HashBucketPage();
 	  
-	  int hashValue = key.getHash(DEPTH);
-	  
-	  //to check and use correct hash value
-	  for (; hashValue >= HashDirPage.MAX_ENTRIES ; hashValue -= HashDirPage.MAX_ENTRIES){
-		  Minibase.BufferManager.pinPage(dirPageId, hdataPage, PIN_DISKIO);
-		  PageId nextId = hdataPage.getNextPage();
-		  Minibase.BufferManager.unpinPage(dirPageId, UNPIN_CLEAN);
-		  dirPageId = nextId;
-		  
-	  }
-	  Minibase.BufferManager.pinPage(dirPageId, hDirPage, PIN_DISKIO); 
-	    
-	  PageId dataId = hDirPage.getPageId(hashValue);
-	  
-	  //2. insert to exist pageId or create a new one and insert the record to it
-	  if (dataId.pid != INVALID_PAGEID){
-		  Minibase.BufferManager.pinPage(dataId, hdataPage, PIN_DISKIO);
-		  Minibase.BufferManager.unpinPage(dirPageId, UNPIN_CLEAN);
-		  
-	  } else {
-		  dataId = Minibase.BufferManager.newPage(hdataPage, 1);
-		  hDirPage.setPageId(hashValue, dataId);
-		  Minibase.BufferManager.unpinPage(dirPageId, UNPIN_DIRTY);
+	  //extendible hashing may split the bucket and try again
+	  while (true) {
+
+		  latchDirectory(false);
+		  int hashValue = getHash(key, globalDepth);
+		  int depth = depths[hashValue];
+		  int bucket = getBucket(hashValue);
+		  latchBucket(bucket, true);
+
+		  PageId dataId = new PageId(bucketIds[hashValue]);
+		  boolean split = false;
+		  try {
+
+			  //2. insert to exist pageId or create a new one and insert the record to it;
+			  //a new extendible bucket is shared by all entries with the same low bits
+			  if (dataId.pid != INVALID_PAGEID){
+				  Minibase.BufferManager.pinPage(dataId, hdataPage, PIN_DISKIO);
+			  } else {
+				  dataId = Minibase.BufferManager.newPage(hdataPage, extent);
+				  setBucket(bucket, depth, dataId);
+				  filters.put(dataId.pid, new BucketFilter(1));
+			  }
+
+			  //3. split a full extendible bucket rather than overflowing it
+			  split = (type == EXTENDIBLE
+					  && hdataPage.getFreeSpace() < hdataPage.getSpaceNeeded(entry)
+					  && canSplit(hdataPage, entry, depth));
+			  if (split) {
+				  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+			  } else {
+				  boolean dirty = hdataPage.insertEntry(entry, extent);
+				  Minibase.BufferManager.unpinPage(dataId, dirty);
+				  addToFilter(dataId, key);
+			  }
+
+		  } finally {
+			  unlatchBucket(bucket, true);
+			  unlatchDirectory(false);
+		  }
+		  if (!split) {
+			  return;
+		  }
+
+		  //splitting changes the directory, so it needs the exclusive latch; by
+		  //then, another thread may have split the bucket already
+		  latchDirectory(true);
+		  try {
+			  hashValue = getHash(key, globalDepth);
+			  if (bucketIds[hashValue] == dataId.pid && depths[hashValue] == depth) {
+				  splitBucket(hashValue);
+			  }
+		  } finally {
+			  unlatchDirectory(true);
+		  }
 	  }
-	  
-	  boolean dirty = hdataPage.insertEntry(entry);
-	  Minibase.BufferManager.unpinPage(dataId, dirty);
 	
   } // public void insertEntry(SearchKey key, RID rid)
 
@@ -174,48 +384,222 @@ public class HashIndex implements GlobalConst {
    * @throws IllegalArgumentException if the entry doesn't exist
    */
   public void deleteEntry(SearchKey key, RID rid) {
+	  removeEntry(key, rid);
+  }
 
+  /**
+   * Deletes the specified data entry from the index file, as above.
+   *
+   * @return the number of bytes freed on the page it was deleted from
+   * @throws IllegalArgumentException if the entry doesn't exist
+   */
+  protected int removeEntry(SearchKey key, RID rid) {
 	  
 	  DataEntry entry = new DataEntry(key, rid);
-	  PageId dirId= new PageId(headId.pid);
-	  HashDirPage hDirPage = new HashDirPage();
 	  HashBucketPage hDataPage = new HashBucketPage();
-	  int hashValue = key.getHash(DEPTH);
-	  
-	  //check the correctness of hashValue
-	  while (hashValue >= HashDirPage.MAX_ENTRIES){
-		  Minibase.BufferManager.pinPage(dirId, hDirPage, PIN_DISKIO);
-		  PageId nextId = hDirPage.getNextPage();
-		  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-		  dirId = nextId;
-		  hashValue -= HashDirPage.MAX_ENTRIES;
+
+	  latchDirectory(false);
+	  int bucket = getBucket(getBucketNo(key));
+	  latchBucket(bucket, true);
+	  try {
+
+		  //1. get pageId from the HashDirPage
+		  PageId dataId = getBucketId(key);
+
+		  //2. check pageId and delete or throw an exception
+		  if (dataId.pid != INVALID_PAGEID){
+
+			  Minibase.BufferManager.pinPage(dataId, hDataPage, PIN_DISKIO);
+			  try {
+				  boolean dirty = hDataPage.deleteEntry(entry, !isConcurrent());
+				  Minibase.BufferManager.unpinPage(dataId, dirty);
+
+				  //an emptied overflow page is freed once optimistic reads that
+				  //may hold it are done (new ones see the bucket's stamp)
+				  PageId emptyId = hDataPage.getUnlinkedPage();
+				  if (emptyId != null) {
+					  awaitReaders(bucket & (LATCH_STRIPES - 1));
+					  Minibase.BufferManager.freePage(emptyId);
+				  }
+				  return -hDataPage.getSpaceChange();
+			  } catch(IllegalArgumentException exc) {
+				  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+				  throw exc;
+			  }
+
+		  } else {
+			  throw new IllegalArgumentException("The entry does not exist!");
+		  }
+
+	  } finally {
+		  unlatchBucket(bucket, true);
+		  unlatchDirectory(false);
 	  }
 	  
-	  //1. get pageId from the HashDirPage
-	  Minibase.BufferManager.pinPage(dirId, hDirPage, PIN_DISKIO);
-	  PageId dataId = hDirPage.getPageId(hashValue);
-	  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-	  
-	  
-	  //2. check pageId and delete or throw an exception
-	  if (dataId.pid != INVALID_PAGEID){
+  } // protected int removeEntry(SearchKey key, RID rid)
+
+  /**
+   * Loads the given (key, rid) pairs into the empty index file, writing each
+   * bucket's pages once, fully packed and in order, rather than inserting
+   * the entries one by one.  Extendible directories are sized so that every
+   * bucket fits on one page (where its entries can be split), and linear
+   * indexes are given as many buckets as their load factor requires.
+   *
+   * @throws IllegalArgumentException if an entry is too large
+   * @throws IllegalStateException if the index is not empty
+   */
+  public void bulkLoad(Iterator<? extends Map.Entry<SearchKey, RID>> entries) {
+	  bulkLoad(entries, 1);
+  }
+
+  /**
+   * Bulk loads the given (key, rid) pairs into the empty index file, as
+   * above, hashing the entries and sorting and packing the buckets with the
+   * given number of threads.  The packed pages are then written by the
+   * calling thread, as the buffer manager allocates pages one at a time.
+   *
+   * @throws IllegalArgumentException if the number of threads is invalid, or
+   * if an entry is too large
+   * @throws IllegalStateException if the index is not empty
+   */
+  public void bulkLoad(Iterator<? extends Map.Entry<SearchKey, RID>> entries,
+		  int threads) {
+
+	  if (threads < 1) {
+		  throw new IllegalArgumentException("invalid number of threads");
+	  }
+	  latchDirectory(true);
+	  try {
+		  if (!isEmpty()) {
+			  throw new IllegalStateException("The index is not empty!");
+		  }
 		  
-		  Minibase.BufferManager.pinPage(dataId, hDataPage, PIN_DISKIO);
+		  //1. collect the data entries
+		  ArrayList<DataEntry> list = new ArrayList<DataEntry>();
+		  while (entries.hasNext()) {
+			  Map.Entry<SearchKey, RID> next = entries.next();
+			  DataEntry entry = new DataEntry(next.getKey(), next.getValue());
+			  if (entry.getLength() > SortedPage.MAX_ENTRY_SIZE) {
+				  throw new IllegalArgumentException("The data entry is too large!");
+			  }
+			  list.add(entry);
+		  }
+
+		  //2. size the directory, and find each entry's bucket (i.e. the first
+		  //directory entry that refers to it)
+		  byte[] depths = planDirectory(list);
+		  int[] owners = new int[list.size()];
+		  ArrayList<ArrayList<DataEntry>> buckets = new ArrayList<ArrayList<DataEntry>>();
+		  ArrayList<ArrayList<SortedPage>> chains = new ArrayList<ArrayList<SortedPage>>();
+		  for (int i = 0; i < depths.length; ++i) {
+			  buckets.add(null);
+			  chains.add(null);
+		  }
+
+		  ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;
 		  try {
-			  boolean dirty = hDataPage.deleteEntry(entry);
-			  Minibase.BufferManager.unpinPage(dataId, dirty);
-		  } catch(IllegalArgumentException exc) {
-			  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
-			  throw exc;
+			  runTask(pool, new HashTask(list, depths, owners, 0, owners.length));
+
+			  //3. partition the entries, then sort and pack each bucket
+			  for (int i = 0; i < owners.length; ++i) {
+				  if (buckets.get(owners[i]) == null) {
+					  buckets.set(owners[i], new ArrayList<DataEntry>());
+				  }
+				  buckets.get(owners[i]).add(list.get(i));
+			  }
+			  list = null;
+			  runTask(pool, new PackTask(buckets, chains, 0, depths.length));
+		  } finally {
+			  if (pool != null) {
+				  pool.shutdown();
+			  }
 		  }
-		  
-	  } else {
-		  throw new IllegalArgumentException("The entry does not exist!");
+
+		  //4. write each bucket's pages in order, from the primary page on, so
+		  //that they are adjacent and ascending in the extent (linking each
+		  //one to the next once the next is allocated)
+		  int[] pageIds = new int[depths.length];
+		  for (int i = 0; i < depths.length; ++i) {
+			  ArrayList<SortedPage> chain = chains.get(i);
+			  if (chain == null) {
+				  pageIds[i] = (i < (1 << depths[i])) ? INVALID_PAGEID
+						  : pageIds[i & ((1 << depths[i]) - 1)];
+				  continue;
+			  }
+			  SortedPage lastPage = null;
+			  PageId lastId = null;
+			  BucketFilter.Builder builder = new BucketFilter.Builder();
+			  for (SortedPage dataPage : chain) {
+				  builder.addPage(dataPage);
+				  dataPage.setNextPage(new PageId());
+				  PageId dataId = Minibase.BufferManager.newPage(dataPage, extent);
+				  if (lastPage == null) {
+					  pageIds[i] = dataId.pid;
+				  } else {
+					  lastPage.setNextPage(dataId);
+					  Minibase.BufferManager.unpinPage(lastId, UNPIN_DIRTY);
+				  }
+				  lastPage = dataPage;
+				  lastId = dataId;
+			  }
+			  Minibase.BufferManager.unpinPage(lastId, UNPIN_DIRTY);
+			  filters.put(pageIds[i], builder.build());
+			  chains.set(i, null);
+		  }
+
+		  //5. point the directory at the buckets
+		  writeDirectory(pageIds, depths);
+
+	  } finally {
+		  unlatchDirectory(true);
 	  }
 	  
-	  
-	  
-  } // public void deleteEntry(SearchKey key, RID rid)
+  } // public void bulkLoad(Iterator<? extends Map.Entry<SearchKey, RID>> entries, int threads)
+
+  /**
+   * Makes the index safe (or not) for use by multiple threads.  Concurrent
+   * operations latch the buckets they use, shared for reading and exclusive
+   * for writing, and the whole directory while it changes (i.e. when
+   * buckets are split).  Their scans read all the matching RIDs up front, so
+   * no latches are held between calls to getNext, and read them without
+   * latching unless a writer interferes (see lookup).  Emptied overflow
+   * pages are only freed once no optimistic read may be holding them.  Not
+   * to be called while other threads are using the index.
+   */
+  public void setConcurrent(boolean concurrent) {
+
+	  if (!concurrent) {
+		  dirLatch = null;
+		  bucketLatches = null;
+		  stamps = null;
+		  optimisticReaders = null;
+	  } else if (dirLatch == null) {
+		  dirLatch = new ReentrantReadWriteLock();
+		  bucketLatches = new ReentrantReadWriteLock[LATCH_STRIPES];
+		  for (int i = 0; i < LATCH_STRIPES; ++i) {
+			  bucketLatches[i] = new ReentrantReadWriteLock();
+		  }
+		  stamps = new AtomicLongArray(LATCH_STRIPES + 1);
+		  optimisticReaders = new AtomicIntegerArray(LATCH_STRIPES);
+	  }
+
+  } // public void setConcurrent(boolean concurrent)
+
+  /**
+   * True if the index is safe for use by multiple threads; false otherwise.
+   */
+  public boolean isConcurrent() {
+	  return (dirLatch != null);
+  }
+
+  /**
+   * True if the index implements linear hashing, i.e. opens LINEAR index
+   * files rather than STATIC or EXTENDIBLE ones; false otherwise.  Called by
+   * the constructor, so it may not depend on the index's fields.
+   */
+  protected boolean isLinear() {
+	  return false;
+  }
 
   /**
    * Initiates an equality scan of the index file.
@@ -224,6 +608,208 @@ public class HashIndex implements GlobalConst {
     return new HashScan(this, key);
   }
 
+  /**
+   * Looks up each of the given keys, returning the RIDs of its matching data
+   * entries (in the same order as the keys).  The keys are grouped by bucket,
+   * so that each bucket page is pinned only once for the whole batch.
+   */
+  public RID[][] lookupAll(SearchKey[] keys) {
+
+	  //1. sort the keys by primary page (since buckets may be shared), keeping
+	  //their original positions
+	  latchDirectory(false);
+	  int count = keys.length;
+	  long[] order = new long[count];
+	  ArrayList<ArrayList<RID>> matches = new ArrayList<ArrayList<RID>>();
+	  try {
+		  for (int i = 0; i < count; ++i) {
+			  order[i] = ((long) bucketIds[getBucketNo(keys[i])] << 32) | i;
+			  matches.add(new ArrayList<RID>());
+		  }
+		  Arrays.sort(order);
+
+		  //2. search each bucket's pages for all of its keys at once
+		  SortedPage dataPage = new SortedPage();
+		  int to;
+		  for (int from = 0; from < count; from = to) {
+
+			  int pid = (int) (order[from] >> 32);
+			  to = from + 1;
+			  while (to < count && (int) (order[to] >> 32) == pid) {
+				  ++to;
+			  }
+			  if (pid == INVALID_PAGEID) {
+				  continue;
+			  }
+
+			  int bucket = getBucket(getBucketNo(keys[(int) order[from]]));
+			  latchBucket(bucket, false);
+			  try {
+				  //leave out the keys ruled out by the bucket's filter, and the
+				  //bucket's pages if all of them are; without a filter, build
+				  //one while reading the pages
+				  PageId dataId = new PageId(pid);
+				  BucketFilter filter = getFilter(dataId);
+				  BucketFilter.Builder builder = null;
+				  int end = from;
+				  if (filter == null) {
+					  builder = new BucketFilter.Builder();
+					  end = to;
+				  } else {
+					  for (int i = from; i < to; ++i) {
+						  if (filter.mightContain(keys[(int) order[i]])) {
+							  order[end++] = order[i];
+						  }
+					  }
+				  }
+				  if (end == from) {
+					  dataId.pid = INVALID_PAGEID;
+				  }
+
+				  while (dataId.pid != INVALID_PAGEID) {
+					  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+					  if (builder != null) {
+						  builder.addPage(dataPage);
+					  }
+					  for (int i = from; i < end; ++i) {
+						  int ix = (int) order[i];
+						  int slot = dataPage.findKey(keys[ix]);
+						  if (slot >= 0) {
+							  for (RidList list = dataPage.getRids(slot); list.hasNext(); ) {
+								  matches.get(ix).add(list.next());
+							  }
+						  }
+					  }
+					  PageId nextId = dataPage.getNextPage();
+					  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+					  dataId = nextId;
+				  }
+
+				  //no keys are added while the bucket is latched
+				  if (builder != null) {
+					  filters.put(pid, builder.build());
+				  }
+			  } finally {
+				  unlatchBucket(bucket, false);
+			  }
+		  }
+	  } finally {
+		  unlatchDirectory(false);
+	  }
+
+	  RID[][] rids = new RID[count][];
+	  for (int i = 0; i < count; ++i) {
+		  rids[i] = matches.get(i).toArray(new RID[matches.get(i).size()]);
+	  }
+	  return rids;
+
+  } // public RID[][] lookupAll(SearchKey[] keys)
+
+  /**
+   * Looks up the given key, returning the RIDs of its matching data entries.
+   * Concurrent indexes first read the bucket optimistically (see tryLookup),
+   * and only latch it if writers keep interfering.
+   */
+  protected RID[] lookup(SearchKey key) {
+
+	  if (stamps != null) {
+		  for (int i = 0; i < OPTIMISTIC_TRIES; ++i) {
+			  RID[] rids = tryLookup(key);
+			  if (rids != null) {
+				  return rids;
+			  }
+		  }
+	  }
+	  return lookupAll(new SearchKey[] { key })[0];
+
+  } // protected RID[] lookup(SearchKey key)
+
+  /**
+   * Looks up the given key in a concurrent index without latching, like a
+   * StampedLock's optimistic read: the bucket's and directory's stamps are
+   * read first and checked again after each page, so that the RIDs are only
+   * returned if no writer latched either one in the meantime.  Writers pin
+   * each page before changing it, and pin counts are changed atomically, so
+   * a reader whose pages overlapped a writer's will see the writer's stamp.
+   * The bucket's pages are not read if its filter rules out the key (a
+   * filter that has not been built is not built here, as keys may be added
+   * meanwhile; see lookupAll).
+   *
+   * @return the matching RIDs, or null if a writer interfered
+   */
+  protected RID[] tryLookup(SearchKey key) {
+
+	  //pages are only freed once the directory or the bucket is latched and
+	  //the reads of its stripe have finished (see awaitReaders), so the pages
+	  //read here are valid; the stripe is found again once the directory's
+	  //stamp is read, in case the directory changed meanwhile
+	  int stripe;
+	  try {
+		  stripe = getBucket(getBucketNo(key)) & (LATCH_STRIPES - 1);
+	  } catch (RuntimeException exc) {
+		  return null;
+	  }
+	  optimisticReaders.incrementAndGet(stripe);
+	  try {
+		  long dirStamp = stamps.get(LATCH_STRIPES);
+		  if ((dirStamp & 1) != 0) {
+			  return null;
+		  }
+		  int hashValue = getBucketNo(key);
+		  if ((getBucket(hashValue) & (LATCH_STRIPES - 1)) != stripe) {
+			  return null;
+		  }
+		  long stamp = stamps.get(stripe);
+		  if ((stamp & 1) != 0) {
+			  return null;
+		  }
+
+		  ArrayList<RID> rids = new ArrayList<RID>();
+		  SortedPage dataPage = new SortedPage();
+		  PageId dataId = new PageId(bucketIds[hashValue]);
+		  if (dataId.pid != INVALID_PAGEID) {
+			  BucketFilter filter = getFilter(dataId);
+			  if (filter != null && !filter.mightContain(key)) {
+				  dataId.pid = INVALID_PAGEID;
+			  }
+		  }
+		  while (dataId.pid != INVALID_PAGEID) {
+			  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+			  PageId nextId;
+			  try {
+				  int slot = dataPage.findKey(key);
+				  if (slot >= 0) {
+					  for (RidList list = dataPage.getRids(slot); list.hasNext(); ) {
+						  rids.add(list.next());
+					  }
+				  }
+				  nextId = dataPage.getNextPage();
+			  } finally {
+				  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+			  }
+
+			  //stop as soon as a writer interferes, before following a link it
+			  //may have changed
+			  if (stamps.get(stripe) != stamp) {
+				  return null;
+			  }
+			  dataId = nextId;
+		  }
+
+		  if (stamps.get(stripe) != stamp || stamps.get(LATCH_STRIPES) != dirStamp) {
+			  return null;
+		  }
+		  return rids.toArray(new RID[rids.size()]);
+
+	  } catch (RuntimeException exc) {
+		  //a page or the directory was read while a writer was changing it
+		  return null;
+	  } finally {
+		  optimisticReaders.decrementAndGet(stripe);
+	  }
+
+  } // protected RID[] tryLookup(SearchKey key)
+
   /**
    * Returns the name of the index file.
    */
@@ -246,6 +832,9 @@ public class HashIndex implements GlobalConst {
    * ------------
    * Total : 1500
    * </pre>
+   *
+   * Extendible and linear buckets are printed once, labeled with their local
+   * depth's worth of hash bits.
    */
   public void printSummary() {
 
@@ -262,40 +851,40 @@ public class HashIndex implements GlobalConst {
 	  
 	  
 	  int total = 0;
-	  
-	  PageId dirId = new PageId(headId.pid);
-	  HashDirPage dirPage = new HashDirPage();
 	  HashBucketPage dataPage = new HashBucketPage();
-	  
-	  while (dirId.pid != INVALID_PAGEID) {
-		  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
-		  
-		  int count = dirPage.getEntryCount();
-		  for (int i = 0 ; i < count ; ++i){
-			  String hash = Integer.toString(i,2);
-			  for (int j=0 ; j < DEPTH - hash.length() ; ++j){
-				  System.out.print('0');
-			  }
-			  System.out.print(hash + " : ");
-			  
-			  PageId dataId = dirPage.getPageId(i);
-			  
-			  if (dataId.pid != INVALID_PAGEID) {
-				  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
-				  int bkcnt = dataPage.countEntries();
-				  System.out.println(bkcnt);
-				  total += bkcnt;
-				  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);		  
-			  } else {
-				  System.out.println("null");
+	  latchDirectory(true);
+
+	  for (int i = 0 ; i < dirSize ; ++i){
+
+		  //skip the extra references to shared extendible buckets
+		  int depth = HashDirPage.INIT_DEPTH;
+		  if (type != STATIC) {
+			  depth = depths[i];
+			  if (i >= (1 << depth)) {
+				  continue;
 			  }
 		  }
 		  
-		  PageId nextId = dirPage.getNextPage();
-		  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-		  dirId = nextId;
-		  
+		  String hash = Integer.toString(i,2);
+		  for (int j=0 ; j < depth - hash.length() ; ++j){
+			  System.out.print('0');
+		  }
+		  System.out.print(hash + " : ");
+
+		  PageId dataId = new PageId(bucketIds[i]);
+
+		  if (dataId.pid != INVALID_PAGEID) {
+			  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO, ACCESS_ONCE);
+			  int bkcnt = dataPage.countEntries();
+			  System.out.println(bkcnt);
+			  total += bkcnt;
+			  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+		  } else {
+			  System.out.println("null");
+		  }
 	  }
+
+	  unlatchDirectory(true);
 	  
 	  for (int i = 0 ; i < name.length() ; ++i) {
 		  System.out.print('-');
@@ -306,4 +895,616 @@ public class HashIndex implements GlobalConst {
 
   } // public void printSummary()
 
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the number of the bucket (i.e. the directory entry) for the given key.
+   */
+  protected int getBucketNo(SearchKey key) {
+	  return getHash(key, globalDepth);
+  }
+
+  /**
+   * Gets the hash value for the given key with the index's hash function,
+   * given the depth (i.e. number of bits to consider).
+   */
+  protected int getHash(SearchKey key, int depth) {
+	  return key.getHash(hashFunction, depth);
+  }
+
+  /**
+   * Latches the directory, shared or exclusive, if the index is concurrent.
+   * An exclusive latch also waits for optimistic reads to finish, as the
+   * directory's stamp makes any new ones fail.
+   */
+  protected void latchDirectory(boolean exclusive) {
+	  if (dirLatch != null) {
+		  if (exclusive) {
+			  dirLatch.writeLock().lock();
+			  stamps.incrementAndGet(LATCH_STRIPES);
+			  for (int i = 0; i < LATCH_STRIPES; ++i) {
+				  awaitReaders(i);
+			  }
+		  } else {
+			  dirLatch.readLock().lock();
+		  }
+	  }
+  }
+
+  /**
+   * Waits for the optimistic reads of the given stripe to finish; the caller
+   * must have changed their stamp (i.e. latched them exclusively), so that
+   * any new ones fail without reading a page.
+   */
+  protected void awaitReaders(int stripe) {
+	  while (optimisticReaders.get(stripe) > 0) {
+		  Thread.yield();
+	  }
+  }
+
+  /**
+   * Releases a latch on the directory taken by latchDirectory.
+   */
+  protected void unlatchDirectory(boolean exclusive) {
+	  if (dirLatch != null) {
+		  if (exclusive) {
+			  stamps.incrementAndGet(LATCH_STRIPES);
+			  dirLatch.writeLock().unlock();
+		  } else {
+			  dirLatch.readLock().unlock();
+		  }
+	  }
+  }
+
+  /**
+   * Latches the given bucket (i.e. its stripe), shared or exclusive, if the
+   * index is concurrent; the caller must hold a latch on the directory.
+   */
+  protected void latchBucket(int bucket, boolean exclusive) {
+	  if (bucketLatches != null) {
+		  ReentrantReadWriteLock latch = bucketLatches[bucket & (LATCH_STRIPES - 1)];
+		  if (exclusive) {
+			  latch.writeLock().lock();
+			  stamps.incrementAndGet(bucket & (LATCH_STRIPES - 1));
+		  } else {
+			  latch.readLock().lock();
+		  }
+	  }
+  }
+
+  /**
+   * Releases a latch on the given bucket taken by latchBucket.
+   */
+  protected void unlatchBucket(int bucket, boolean exclusive) {
+	  if (bucketLatches != null) {
+		  ReentrantReadWriteLock latch = bucketLatches[bucket & (LATCH_STRIPES - 1)];
+		  if (exclusive) {
+			  stamps.incrementAndGet(bucket & (LATCH_STRIPES - 1));
+			  latch.writeLock().unlock();
+		  } else {
+			  latch.readLock().unlock();
+		  }
+	  }
+  }
+
+  /**
+   * True if no bucket in the directory has been allocated; false otherwise.
+   */
+  protected boolean isEmpty() {
+
+	  for (int i = 0; i < dirSize; ++i) {
+		  if (bucketIds[i] != INVALID_PAGEID) {
+			  return false;
+		  }
+	  }
+	  return true;
+
+  } // protected boolean isEmpty()
+
+  /**
+   * Gets the id of the primary page of the bucket for the given key, or an
+   * invalid page id if the bucket has not been allocated.
+   */
+  protected PageId getBucketId(SearchKey key) {
+	  return new PageId(bucketIds[getBucketNo(key)]);
+  }
+
+  /**
+   * True if the bucket with the given primary page may hold the given key;
+   * false if its filter rules the key out (or if the page id is invalid).
+   * A bucket without a filter yet may hold any key.
+   */
+  protected boolean mayContain(PageId dataId, SearchKey key) {
+	  if (dataId.pid == INVALID_PAGEID) {
+		  return false;
+	  }
+	  BucketFilter filter = getFilter(dataId);
+	  return (filter == null) || filter.mightContain(key);
+  }
+
+  /**
+   * Gets the filter of the bucket with the given primary page, or null if it
+   * has none yet (or if it's full), i.e. if it must be built the next time
+   * the bucket is read through (see BucketFilter.Builder).
+   */
+  protected BucketFilter getFilter(PageId dataId) {
+	  BucketFilter filter = filters.get(dataId.pid);
+	  return (filter == null || filter.isFull()) ? null : filter;
+  }
+
+  /**
+   * Adds the given key to the filter of the bucket with the given primary
+   * page, if it has one; a full filter is dropped instead, to be built again
+   * (larger) when next needed.  The caller must latch the bucket exclusively.
+   */
+  protected void addToFilter(PageId dataId, SearchKey key) {
+
+	  inserts++;
+	  BucketFilter filter = filters.get(dataId.pid);
+	  if (filter != null) {
+		  if (filter.isFull()) {
+			  filters.remove(dataId.pid);
+		  } else {
+			  filter.add(key);
+		  }
+	  }
+
+  } // protected void addToFilter(PageId dataId, SearchKey key)
+
+  /**
+   * Gets the number of the bucket for the given directory entry, i.e. the
+   * first entry that refers to it (extendible buckets may be shared).
+   */
+  protected int getBucket(int hash) {
+	  return hash & ((1 << depths[hash]) - 1);
+  }
+
+  /**
+   * Reads the directory entries into memory, along with the ids of the
+   * directory pages.
+   */
+  protected void loadDirectory() {
+
+	  dirIds = new int[0];
+	  dirSize = 0;
+	  bucketIds = new int[HashDirPage.INIT_SIZE];
+	  depths = new byte[HashDirPage.INIT_SIZE];
+
+	  PageId dirId = new PageId(headId.pid);
+	  HashDirPage dirPage = new HashDirPage();
+	  while (dirId.pid != INVALID_PAGEID) {
+		  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO, ACCESS_ONCE);
+		  dirPage.setHead(dirIds.length == 0);
+
+		  int count = dirPage.getEntryCount();
+		  if (dirSize + count > bucketIds.length) {
+			  int capacity = Math.max(dirSize + count, bucketIds.length << 1);
+			  bucketIds = Arrays.copyOf(bucketIds, capacity);
+			  depths = Arrays.copyOf(depths, capacity);
+		  }
+		  for (int i = 0; i < count; ++i) {
+			  bucketIds[dirSize + i] = dirPage.getPageId(i).pid;
+			  depths[dirSize + i] = dirPage.getDepth(i);
+		  }
+		  dirSize += count;
+		  dirIds = Arrays.copyOf(dirIds, dirIds.length + 1);
+		  dirIds[dirIds.length - 1] = dirId.pid;
+
+		  PageId nextId = dirPage.getNextPage();
+		  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+		  dirId = nextId;
+	  }
+
+  } // protected void loadDirectory()
+
+  /**
+   * Writes the in-memory directory entries first, first + step, and so on to
+   * the directory pages holding them.
+   */
+  protected void writeDirEntries(int first, int step) {
+
+	  PageId dirId = new PageId();
+	  HashDirPage dirPage = new HashDirPage();
+	  int pinned = -1;
+
+	  for (int i = first; i < dirSize; i += step) {
+		  int page = HashDirPage.getPageOf(i);
+		  if (page != pinned) {
+			  if (pinned >= 0) {
+				  Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+			  }
+			  dirId.pid = dirIds[page];
+			  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+			  dirPage.setHead(page == 0);
+			  pinned = page;
+		  }
+		  int ix = i - HashDirPage.getFirstEntry(page);
+		  dirPage.setPageId(ix, new PageId(bucketIds[i]));
+		  dirPage.setDepth(ix, depths[i]);
+	  }
+
+	  if (pinned >= 0) {
+		  Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+	  }
+
+  } // protected void writeDirEntries(int first, int step)
+
+  /**
+   * Points every directory entry whose low bits match the given prefix (up to
+   * the given local depth) at the given bucket, and sets their local depth.
+   */
+  protected void setBucket(int prefix, int depth, PageId pageno) {
+
+	  for (int i = prefix; i < dirSize; i += 1 << depth) {
+		  bucketIds[i] = pageno.pid;
+		  depths[i] = (byte) depth;
+	  }
+	  writeDirEntries(prefix, 1 << depth);
+
+  } // protected void setBucket(int prefix, int depth, PageId pageno)
+
+  /**
+   * True if splitting the bucket with the given primary page would separate
+   * its entries (or the new entry), i.e. if they do not all share the same
+   * hash value up to the maximum depth.
+   */
+  protected boolean canSplit(HashBucketPage page, DataEntry entry, int depth) {
+
+	  if (depth >= MAX_DEPTH) {
+		  return false;
+	  }
+
+	  int hash = getHash(entry.key, MAX_DEPTH);
+	  int count = page.getKeyCount();
+	  for (int i = 0; i < count; ++i) {
+		  if (getHash(page.getKeyAt(i), MAX_DEPTH) != hash) {
+			  return true;
+		  }
+	  }
+	  return false;
+
+  } // protected boolean canSplit(HashBucketPage page, DataEntry entry, int depth)
+
+  /**
+   * Splits the extendible bucket for the given hash value into two buckets
+   * one bit deeper, doubling the directory first if needed.
+   */
+  protected void splitBucket(int hash) {
+
+	  //1. get the bucket and its local depth
+	  PageId oldId = new PageId(bucketIds[hash]);
+	  int depth = depths[hash];
+
+	  if (depth == globalDepth) {
+		  doubleDirectory();
+	  }
+
+	  //2. take every entry out of the bucket, and add its new sibling
+	  HashBucketPage oldPage = new HashBucketPage();
+	  Minibase.BufferManager.pinPage(oldId, oldPage, PIN_DISKIO);
+	  ArrayList<DataEntry> entries = oldPage.removeAllEntries();
+
+	  HashBucketPage newPage = new HashBucketPage();
+	  PageId newId = Minibase.BufferManager.newPage(newPage, extent);
+
+	  //3. redistribute the entries on the next bit of their hash values, and
+	  //build both buckets' filters from them
+	  BucketFilter oldFilter = new BucketFilter(entries.size());
+	  BucketFilter newFilter = new BucketFilter(entries.size());
+	  for (DataEntry entry : entries) {
+		  if (((getHash(entry.key, depth + 1) >> depth) & 1) == 0) {
+			  oldPage.insertEntry(entry, extent);
+			  oldFilter.add(entry.key);
+		  } else {
+			  newPage.insertEntry(entry, extent);
+			  newFilter.add(entry.key);
+		  }
+	  }
+	  filters.put(oldId.pid, oldFilter);
+	  filters.put(newId.pid, newFilter);
+	  Minibase.BufferManager.unpinPage(oldId, UNPIN_DIRTY);
+	  Minibase.BufferManager.unpinPage(newId, UNPIN_DIRTY);
+
+	  //4. point the directory entries at the two buckets
+	  int prefix = hash & ((1 << depth) - 1);
+	  setBucket(prefix, depth + 1, oldId);
+	  setBucket(prefix | (1 << depth), depth + 1, newId);
+
+  } // protected void splitBucket(int hash)
+
+  /**
+   * Doubles the size of the directory, such that each new entry refers to the
+   * same bucket as its "buddy" in the lower half; adds directory pages to the
+   * chain as needed.
+   */
+  protected void doubleDirectory() {
+
+	  int size = 1 << globalDepth;
+	  int[] pageIds = Arrays.copyOf(bucketIds, size << 1);
+	  byte[] newDepths = Arrays.copyOf(depths, size << 1);
+	  System.arraycopy(pageIds, 0, pageIds, size, size);
+	  System.arraycopy(newDepths, 0, newDepths, size, size);
+
+	  globalDepth++;
+	  writeDirectory(pageIds, newDepths);
+
+  } // protected void doubleDirectory()
+
+  /**
+   * Replaces the directory with the given entries, and writes them to the
+   * directory pages along with the global depth, adding directory pages to
+   * the chain as needed.
+   */
+  protected void writeDirectory(int[] pageIds, byte[] depths) {
+
+	  this.bucketIds = pageIds;
+	  this.depths = depths;
+	  this.dirSize = pageIds.length;
+
+	  int oldPages = dirIds.length;
+	  int pages = HashDirPage.getPageOf(dirSize - 1) + 1;
+	  if (pages > oldPages) {
+		  dirIds = Arrays.copyOf(dirIds, pages);
+	  }
+
+	  HashDirPage dirPage = new HashDirPage();
+	  for (int page = 0; page < pages; ++page) {
+		  PageId dirId = new PageId(dirIds[page]);
+		  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+		  dirPage.setHead(page == 0);
+
+		  int base = HashDirPage.getFirstEntry(page);
+		  int count = Math.min(dirPage.getMaxEntries(), dirSize - base);
+		  dirPage.setEntryCount((short) count);
+		  for (int i = 0; i < count; ++i) {
+			  dirPage.setPageId(i, new PageId(pageIds[base + i]));
+			  dirPage.setDepth(i, depths[base + i]);
+		  }
+		  if (page == 0) {
+			  dirPage.setGlobalDepth((byte) globalDepth);
+		  }
+
+		  //chain a new directory page if needed
+		  if (page + 1 < pages && page + 1 >= oldPages) {
+			  HashDirPage nextPage = new HashDirPage();
+			  PageId nextId = Minibase.BufferManager.newPage(nextPage, 1);
+			  Minibase.BufferManager.unpinPage(nextId, UNPIN_DIRTY);
+			  dirPage.setNextPage(nextId);
+			  dirIds[page + 1] = nextId.pid;
+		  }
+		  Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+	  }
+
+  } // protected void writeDirectory(int[] pageIds, byte[] depths)
+
+  /**
+   * Runs the given task in the given pool, or else over its whole range in
+   * the calling thread (forking subtasks outside of a pool would run them in
+   * another pool, or fail on older JVMs).
+   */
+  protected static void runTask(ForkJoinPool pool, RangeTask task) {
+	  if (pool != null) {
+		  pool.invoke(task);
+	  } else {
+		  task.compute(task.from, task.to);
+	  }
+  }
+
+  /**
+   * Bulk loading task over a range of items, splitting the range in half
+   * until it's small enough.
+   */
+  protected static abstract class RangeTask extends RecursiveAction {
+
+	  private static final long serialVersionUID = 1L;
+
+	  protected final int from, to;
+
+	  /** Items per task, below which the range is not split. */
+	  protected final int threshold;
+
+	  public RangeTask(int from, int to, int threshold) {
+		  this.from = from;
+		  this.to = to;
+		  this.threshold = threshold;
+	  }
+
+	  protected void compute() {
+		  if (to - from > threshold) {
+			  int mid = (from + to) >>> 1;
+			  invokeAll(subtask(from, mid), subtask(mid, to));
+		  } else {
+			  compute(from, to);
+		  }
+	  }
+
+	  /**
+	   * Creates a task for the given part of the range.
+	   */
+	  protected abstract RangeTask subtask(int from, int to);
+
+	  /**
+	   * Processes the items of the given range, in the current thread.
+	   */
+	  protected abstract void compute(int from, int to);
+
+  } // protected static abstract class RangeTask extends RecursiveAction
+
+  /**
+   * Bulk loading task that finds the bucket of each data entry in a range.
+   */
+  protected class HashTask extends RangeTask {
+
+	  private static final long serialVersionUID = 1L;
+
+	  /** Entries per task, below which the range is not split. */
+	  protected static final int THRESHOLD = 4096;
+
+	  protected final ArrayList<DataEntry> entries;
+	  protected final byte[] depths;
+	  protected final int[] owners;
+
+	  public HashTask(ArrayList<DataEntry> entries, byte[] depths, int[] owners,
+			  int from, int to) {
+		  super(from, to, THRESHOLD);
+		  this.entries = entries;
+		  this.depths = depths;
+		  this.owners = owners;
+	  }
+
+	  protected RangeTask subtask(int from, int to) {
+		  return new HashTask(entries, depths, owners, from, to);
+	  }
+
+	  protected void compute(int from, int to) {
+		  for (int i = from; i < to; ++i) {
+			  int hash = getBucketNo(entries.get(i).key);
+			  owners[i] = hash & ((1 << depths[hash]) - 1);
+		  }
+	  }
+
+  } // protected class HashTask extends RangeTask
+
+  /**
+   * Bulk loading task that sorts the entries of each bucket in a range, and
+   * packs them into pages (outside of the buffer pool).
+   */
+  protected class PackTask extends RangeTask {
+
+	  private static final long serialVersionUID = 1L;
+
+	  /** Buckets per task, below which the range is not split. */
+	  protected static final int THRESHOLD = 16;
+
+	  protected final ArrayList<ArrayList<DataEntry>> buckets;
+	  protected final ArrayList<ArrayList<SortedPage>> chains;
+
+	  public PackTask(ArrayList<ArrayList<DataEntry>> buckets,
+			  ArrayList<ArrayList<SortedPage>> chains, int from, int to) {
+		  super(from, to, THRESHOLD);
+		  this.buckets = buckets;
+		  this.chains = chains;
+	  }
+
+	  protected RangeTask subtask(int from, int to) {
+		  return new PackTask(buckets, chains, from, to);
+	  }
+
+	  protected void compute(int from, int to) {
+		  for (int i = from; i < to; ++i) {
+			  ArrayList<DataEntry> bucket = buckets.get(i);
+			  if (bucket != null) {
+				  Collections.sort(bucket, KEY_ORDER);
+				  chains.set(i, HashBucketPage.packEntries(bucket));
+				  buckets.set(i, null);
+			  }
+		  }
+	  }
+
+  } // protected class PackTask extends RangeTask
+
+  /**
+   * Sizes the directory for bulk loading the given data entries, setting the
+   * global depth as needed.  Static directories keep their fixed size, and
+   * extendible buckets are split (in memory) until each one fits on a page or
+   * can no longer be split.
+   *
+   * @return the local depth of each directory entry
+   */
+  protected byte[] planDirectory(ArrayList<DataEntry> entries) {
+
+	  if (type == STATIC) {
+		  byte[] depths = new byte[1 << HashDirPage.INIT_DEPTH];
+		  Arrays.fill(depths, HashDirPage.INIT_DEPTH);
+		  return depths;
+	  }
+
+	  //1. split the buckets until they fit, starting from one bucket
+	  int count = entries.size();
+	  int[] hashes = new int[count];
+	  int[] sizes = getPackedSizes(entries);
+	  for (int i = 0; i < count; ++i) {
+		  hashes[i] = getHash(entries.get(i).key, MAX_DEPTH);
+	  }
+	  ArrayList<int[]> buckets = new ArrayList<int[]>();
+	  planBucket(hashes, sizes, 0, count, 0, 0, buckets);
+
+	  //2. grow the directory to the deepest bucket, and fill in the depths
+	  for (int[] bucket : buckets) {
+		  globalDepth = Math.max(globalDepth, bucket[1]);
+	  }
+	  byte[] depths = new byte[1 << globalDepth];
+	  for (int[] bucket : buckets) {
+		  for (int i = bucket[0]; i < depths.length; i += 1 << bucket[1]) {
+			  depths[i] = (byte) bucket[1];
+		  }
+	  }
+	  return depths;
+
+  } // protected byte[] planDirectory(ArrayList<DataEntry> entries)
+
+  /**
+   * Sorts the given data entries (as their buckets will be sorted), and gets
+   * the space each one will take up once packed: a new record and slot for
+   * the first entry of a key, or the encoded RID for a duplicate.
+   */
+  protected static int[] getPackedSizes(ArrayList<DataEntry> entries) {
+
+	  Collections.sort(entries, KEY_ORDER);
+	  int[] sizes = new int[entries.size()];
+	  DataEntry last = null;
+	  for (int i = 0; i < sizes.length; ++i) {
+		  DataEntry entry = entries.get(i);
+		  if (last != null && last.key.compareTo(entry.key) == 0) {
+			  sizes[i] = RidList.getSize(last.rid, entry.rid);
+		  } else {
+			  sizes[i] = entry.getLength() + SortedPage.SLOT_SIZE;
+		  }
+		  last = entry;
+	  }
+	  return sizes;
+
+  } // protected static int[] getPackedSizes(ArrayList<DataEntry> entries)
+
+  /**
+   * Plans the extendible bucket for the given hash prefix and local depth,
+   * holding the entries in the given range, splitting it in two (and
+   * partitioning the range on the next hash bit) if it's too large for a page.
+   * Adds the resulting (prefix, depth) pairs to the given list.
+   */
+  protected void planBucket(int[] hashes, int[] sizes, int from, int to,
+		  int prefix, int depth, ArrayList<int[]> buckets) {
+
+	  //1. keep the bucket if it fits, or if its entries are inseparable
+	  if (depth >= globalDepth) {
+		  int total = 0;
+		  boolean same = true;
+		  for (int i = from; i < to; ++i) {
+			  total += sizes[i];
+			  same &= (hashes[i] == hashes[from]);
+		  }
+		  if (total <= BUCKET_SPACE || depth >= MAX_DEPTH || same) {
+			  buckets.add(new int[] { prefix, depth });
+			  return;
+		  }
+	  }
+
+	  //2. otherwise partition the entries on the next bit, and recurse
+	  int mid = from;
+	  for (int i = from; i < to; ++i) {
+		  if (((hashes[i] >> depth) & 1) == 0) {
+			  int hash = hashes[i];
+			  hashes[i] = hashes[mid];
+			  hashes[mid] = hash;
+			  int size = sizes[i];
+			  sizes[i] = sizes[mid];
+			  sizes[mid] = size;
+			  mid++;
+		  }
+	  }
+	  planBucket(hashes, sizes, from, mid, prefix, depth + 1, buckets);
+	  planBucket(hashes, sizes, mid, to, prefix | (1 << depth), depth + 1, buckets);
+
+  } // protected void planBucket(int[] hashes, int[] sizes, int from, int to, int prefix, int depth, ArrayList<int[]> buckets)
+
 } // public class HashIndex implements GlobalConst
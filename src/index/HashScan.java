@@ -21,9 +21,27 @@ public class HashScan implements GlobalConst {
   /** HashBucketPage being scanned. */
   protected HashBucketPage curPage;
 
-  /** Current slot to scan from. */
+  /** Slot of the key's posting list on the current page (or the last RID read up front). */
   protected int curSlot;
 
+  /** Decoder of the key's posting list, read in place on the pinned current page (null if none). */
+  protected RidList curRids;
+
+  /** Matching RIDs read up front, for concurrent indexes (null otherwise). */
+  protected RID[] rids;
+
+  /** The index being scanned. */
+  protected HashIndex index;
+
+  /** Primary page of the bucket being scanned. */
+  protected PageId bucketId;
+
+  /** Collects the bucket's keys if it has no filter yet (null otherwise). */
+  protected BucketFilter.Builder filterBuilder;
+
+  /** The index's count of keys added when the scan was opened. */
+  protected int inserts;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -31,23 +49,34 @@ public class HashScan implements GlobalConst {
    */
   protected HashScan(HashIndex index, SearchKey key) {
 
-	  this.key = new SearchKey(key);
-	  PageId dirPageId = new PageId(index.headId.pid);
-	  HashDirPage hDirPage = new HashDirPage();
-	  
-	  //hashValue: to find the hash directory page
-	  int hashValue = key.getHash(index.DEPTH);
-
-	  Minibase.BufferManager.pinPage(dirPageId, hDirPage, PIN_DISKIO);
-	  
-	  //Get the first page id of bucket page 
-	  curPageId = hDirPage.getPageId(hashValue);
-	  Minibase.BufferManager.unpinPage(dirPageId, UNPIN_CLEAN);
+	  this.key = key;
 	  curPage = new HashBucketPage();
+	  curSlot = EMPTY_SLOT;
+
+	  //concurrent indexes read the RIDs up front, optimistically if possible
+	  if (index.isConcurrent()) {
+		  rids = index.lookup(key);
+		  curPageId = new PageId();
+		  return;
+	  }
+
+	  //Get the first page id of bucket page from the directory, unless the
+	  //bucket's filter rules out the key (or else build the bucket's filter
+	  //while scanning it, as every page is read anyway)
+	  curPageId = index.getBucketId(key);
+	  if(!index.mayContain(curPageId, key)) {
+		  curPageId = new PageId();
+	  } else if (index.getFilter(curPageId) == null) {
+		  this.index = index;
+		  bucketId = new PageId(curPageId.pid);
+		  filterBuilder = new BucketFilter.Builder();
+		  inserts = index.inserts;
+	  }
 	  
+	  //read the overflow pages of the bucket ahead of the scan
 	  if(curPageId.pid != INVALID_PAGEID) {
 		  Minibase.BufferManager.pinPage(curPageId, curPage, PIN_DISKIO);
-	      //this.curSlot = EMPTY_SLOT;
+		  ReadAhead.chain(curPage.getNextPage(), ACCESS_RANDOM);
 	  }
 	  	  
   } // protected HashScan(HashIndex index, SearchKey key)
@@ -84,25 +113,48 @@ public class HashScan implements GlobalConst {
 
 	  RID rid = null;
 	  
+	  if (rids != null) {
+		  if (curSlot + 1 < rids.length) {
+			  rid = rids[++curSlot];
+		  }
+		  return rid;
+	  }
+
 	  while (curPageId.pid != INVALID_PAGEID) {
 	      
-		  //get curSlot to start the scan from it
-		  curSlot = curPage.nextEntry(key, curSlot);
-
-	      if (curSlot < 0) {
-	    	  
-	        PageId nextPageId = curPage.getNextPage();
-	        Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN);
-	        curPageId = nextPageId;
-	        
-	        if (curPageId.pid != INVALID_PAGEID)
-	          Minibase.BufferManager.pinPage(curPageId, curPage, PIN_DISKIO);
-	        
-	      } else {
-              rid = new RID(curPage.getEntryAt(curSlot).rid);
-              break;
-          }
-	    }
+		  //find the key's posting list on the current page, once
+		  if (curSlot < 0) {
+			  curSlot = curPage.findKey(key);
+			  curRids = (curSlot < 0) ? null : curPage.getRids(curSlot);
+		  }
+
+		  if (curRids != null && curRids.hasNext()) {
+			  rid = curRids.next();
+			  break;
+		  }
+
+		  //the list is done (or absent), so go on to the next page
+		  if (filterBuilder != null) {
+			  filterBuilder.addPage(curPage);
+		  }
+		  PageId nextPageId = curPage.getNextPage();
+		  Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN);
+		  curPageId = nextPageId;
+		  curSlot = EMPTY_SLOT;
+		  curRids = null;
+
+		  if (curPageId.pid != INVALID_PAGEID)
+			  Minibase.BufferManager.pinPage(curPageId, curPage, PIN_DISKIO);
+	  }
+
+	  //once the whole bucket has been read, keep its filter (unless keys
+	  //were added since the scan was opened)
+	  if (filterBuilder != null && rid == null) {
+		  if (index.inserts == inserts) {
+			  index.filters.put(bucketId.pid, filterBuilder.build());
+		  }
+		  filterBuilder = null;
+	  }
 	
 	  return rid;
   } // public RID getNext()
@@ -0,0 +1,421 @@
+package index;
+
+import global.HashFunction;
+import global.Minibase;
+import global.PageId;
+import global.RID;
+import global.SearchKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <h3>Minibase Linear Hash Index</h3>
+ * This unclustered index implements linear hashing as described on pages 379
+ * to 384 of the textbook (3rd edition).  Rather than doubling a directory, the
+ * index splits one bucket at a time, in round-robin order, whenever the load
+ * factor crosses the index's threshold.  The level and next bucket to split
+ * are kept in the first directory page, and the bucket address table is the
+ * chain of directory pages, which grows by one entry per split.  Buckets are
+ * not merged when entries are deleted.
+ * <br><br>
+ * The space used by data entries is only saved along with the split pointer
+ * (i.e. when buckets are split or bulk loaded) and when the index is closed,
+ * rather than on every insert and delete; an index that is not closed is
+ * reopened with the size last saved, which only makes its next split come
+ * earlier or later.
+ */
+public class LinearHashIndex extends HashIndex {
+
+  /** Default load factor (as a percentage) that triggers a split. */
+  public static final int DEFAULT_LOAD = 80;
+
+  // --------------------------------------------------------------------------
+
+  /** Next bucket to split in the current round (i.e. level). */
+  protected int split;
+
+  /** Space used by data entries (and their slots) on the pages, in bytes. */
+  protected int dataSize;
+
+  /** Load factor (as a percentage) that triggers a split. */
+  protected int loadFactor;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens a linear hash index given its name, or creates a new index file
+   * with the default load factor if the name doesn't exist; a null name
+   * produces a temporary index file.
+   *
+   * @throws IllegalArgumentException if the file is not a linear hash index
+   * (of a supported format)
+   */
+  public LinearHashIndex(String fileName) {
+    this(fileName, DEFAULT_LOAD);
+  }
+
+  /**
+   * Opens a linear hash index given its name, or creates a new index file
+   * that splits a bucket whenever the load factor (as a percentage) exceeds
+   * the given one.  The load factor of an existing index file is kept in its
+   * directory, so the argument only applies to new files.
+   *
+   * @throws IllegalArgumentException if the load factor is invalid, or if the
+   * file is not a linear hash index (of a supported format)
+   */
+  public LinearHashIndex(String fileName, int loadFactor) {
+    this(fileName, loadFactor, HashFunction.DEFAULT);
+  }
+
+  /**
+   * Opens a linear hash index given its name, or creates a new index file
+   * with the given load factor and hash function (see HashFunction).  Both
+   * are kept in the file's directory, so the arguments only apply to new
+   * files.
+   *
+   * @throws IllegalArgumentException if the load factor or hash function is
+   * invalid, or if the file is not a linear hash index (of a supported format)
+   */
+  public LinearHashIndex(String fileName, int loadFactor, int hashFunction) {
+
+    super(fileName, LINEAR, hashFunction);
+    if ((loadFactor < 1) || (loadFactor > Short.MAX_VALUE)) {
+      throw new IllegalArgumentException("invalid load factor");
+    }
+
+    // load the linear hashing state, initializing it for new files
+    HashDirPage dirPage = new HashDirPage(true);
+    Minibase.BufferManager.pinPage(headId, dirPage, PIN_DISKIO);
+    boolean dirty = UNPIN_CLEAN;
+    if (dirPage.getLoadFactor() == 0) {
+      dirPage.setLoadFactor((short) loadFactor);
+      dirty = UNPIN_DIRTY;
+    }
+    this.split = dirPage.getSplitPointer();
+    this.dataSize = dirPage.getDataSize();
+    this.loadFactor = dirPage.getLoadFactor();
+    Minibase.BufferManager.unpinPage(headId, dirty);
+
+  } // public LinearHashIndex(String fileName, int loadFactor, int hashFunction)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Inserts a new data entry into the index file, then splits buckets while
+   * the load factor exceeds the threshold.
+   *
+   * @throws IllegalArgumentException if the entry is too large
+   */
+  public void insertEntry(SearchKey key, RID rid) {
+
+    DataEntry entry = new DataEntry(key, rid);
+    if (entry.getLength() > SortedPage.MAX_ENTRY_SIZE) {
+      throw new IllegalArgumentException("The data entry is too large!");
+    }
+
+    // get the bucket, allocating its primary page if necessary
+    HashBucketPage dataPage = new HashBucketPage();
+    boolean split;
+    latchDirectory(false);
+    try {
+
+      int ix = getBucketNo(key);
+      latchBucket(ix, true);
+      try {
+        PageId dataId = new PageId(bucketIds[ix]);
+        if (dataId.pid != INVALID_PAGEID) {
+          Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+        } else {
+          dataId = Minibase.BufferManager.newPage(dataPage, extent);
+          setBucket(ix, depths[ix], dataId);
+          filters.put(dataId.pid, new BucketFilter(1));
+        }
+
+        boolean dirty = dataPage.insertEntry(entry, extent);
+        Minibase.BufferManager.unpinPage(dataId, dirty);
+        addToFilter(dataId, key);
+      } finally {
+        unlatchBucket(ix, true);
+      }
+
+      // other threads may be updating the data size too
+      synchronized (this) {
+        dataSize += dataPage.getSpaceChange();
+        split = isOverloaded();
+      }
+
+    } finally {
+      unlatchDirectory(false);
+    }
+
+    // grow the index one bucket at a time, with the directory latched
+    if (split) {
+      latchDirectory(true);
+      try {
+        while (isOverloaded()) {
+          splitBucket();
+        }
+        writeHeader();
+      } finally {
+        unlatchDirectory(true);
+      }
+    }
+
+  } // public void insertEntry(SearchKey key, RID rid)
+
+  /**
+   * Deletes the specified data entry from the index file.
+   *
+   * @throws IllegalArgumentException if the entry doesn't exist
+   */
+  public void deleteEntry(SearchKey key, RID rid) {
+
+    latchDirectory(false);
+    try {
+      int freed = removeEntry(key, rid);
+      synchronized (this) {
+        dataSize = Math.max(dataSize - freed, 0);
+      }
+    } finally {
+      unlatchDirectory(false);
+    }
+
+  } // public void deleteEntry(SearchKey key, RID rid)
+
+  /**
+   * Loads the given (key, rid) pairs into the empty index file with the
+   * given number of threads (see HashIndex.bulkLoad), then saves the linear
+   * hashing state.
+   *
+   * @throws IllegalArgumentException if the number of threads is invalid, or
+   * if an entry is too large
+   * @throws IllegalStateException if the index is not empty
+   */
+  public void bulkLoad(Iterator<? extends Map.Entry<SearchKey, RID>> entries,
+      int threads) {
+    latchDirectory(true);
+    try {
+      super.bulkLoad(entries, threads);
+      writeHeader();
+    } finally {
+      unlatchDirectory(true);
+    }
+  }
+
+  /**
+   * Saves the data size to the first directory page, and releases the pages
+   * reserved for the index's buckets (see HashIndex.close).
+   */
+  public void close() {
+    latchDirectory(true);
+    try {
+      if (dirIds.length > 0) {
+        writeHeader();
+      }
+    } finally {
+      unlatchDirectory(true);
+    }
+    super.close();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * True, as linear hash indexes open LINEAR index files.
+   */
+  protected boolean isLinear() {
+    return true;
+  }
+
+  /**
+   * Gets the number of buckets, i.e. entries in the bucket address table.
+   */
+  protected int getBucketCount() {
+    return (1 << globalDepth) + split;
+  }
+
+  /**
+   * True if the load factor exceeds the threshold, i.e. if a bucket should be
+   * split; false otherwise.
+   */
+  protected boolean isOverloaded() {
+    return (long) dataSize * 100 > (long) loadFactor * BUCKET_SPACE
+        * getBucketCount();
+  }
+
+  /**
+   * Gets the number of the bucket for the given key; buckets before the split
+   * pointer have already been split, and so use one more bit of the hash.
+   */
+  protected int getBucketNo(SearchKey key) {
+
+    int hash = getHash(key, globalDepth);
+    if (hash < split) {
+      hash = getHash(key, globalDepth + 1);
+    }
+    return hash;
+
+  } // protected int getBucketNo(SearchKey key)
+
+  /**
+   * Sizes the bucket address table for bulk loading the given data entries,
+   * giving it the number of buckets that inserting them would have split to;
+   * sets the level, split pointer, and data size accordingly.
+   *
+   * @return the local depth of each bucket
+   */
+  protected byte[] planDirectory(ArrayList<DataEntry> entries) {
+
+    long size = 0;
+    for (int entrySize : getPackedSizes(entries)) {
+      size += entrySize;
+    }
+
+    // the fewest buckets that keep the load factor under the threshold
+    long capacity = (long) loadFactor * BUCKET_SPACE;
+    long count = Math.max(getBucketCount(), (size * 100 + capacity - 1)
+        / capacity);
+    while ((2L << globalDepth) <= count) {
+      globalDepth++;
+    }
+    split = (int) (count - (1 << globalDepth));
+    dataSize = (int) size;
+
+    // buckets that have been split (and their images) use one more bit
+    byte[] depths = new byte[(int) count];
+    for (int i = 0; i < depths.length; i++) {
+      boolean deeper = (i < split) || (i >= (1 << globalDepth));
+      depths[i] = (byte) (deeper ? globalDepth + 1 : globalDepth);
+    }
+    return depths;
+
+  } // protected byte[] planDirectory(ArrayList<DataEntry> entries)
+
+  /**
+   * Splits the bucket at the split pointer, moving the entries whose next
+   * hash bit is set to a new bucket at the end of the address table, and
+   * advances the split pointer (and level, at the end of a round).
+   */
+  protected void splitBucket() {
+
+    int size = 1 << globalDepth;
+    byte depth = (byte) (globalDepth + 1);
+
+    // get the bucket to split, and record its new depth
+    PageId oldId = new PageId(bucketIds[split]);
+    setBucket(split, depth, oldId);
+
+    // move the entries with the next hash bit set to a new bucket
+    PageId newId = new PageId();
+    if (oldId.pid != INVALID_PAGEID) {
+
+      // empty the old bucket
+      HashBucketPage oldPage = new HashBucketPage();
+      Minibase.BufferManager.pinPage(oldId, oldPage, PIN_DISKIO);
+      ArrayList<DataEntry> entries = oldPage.removeAllEntries();
+      dataSize += oldPage.getSpaceChange();
+
+      // the entries may pack differently once split, so count them again,
+      // and build both buckets' filters from them
+      HashBucketPage newPage = new HashBucketPage();
+      BucketFilter oldFilter = new BucketFilter(entries.size());
+      BucketFilter newFilter = new BucketFilter(entries.size());
+      for (DataEntry entry : entries) {
+        if (getHash(entry.key, depth) == split) {
+          oldPage.insertEntry(entry, extent);
+          dataSize += oldPage.getSpaceChange();
+          oldFilter.add(entry.key);
+        } else {
+          if (newId.pid == INVALID_PAGEID) {
+            newId = Minibase.BufferManager.newPage(newPage, extent);
+          }
+          newPage.insertEntry(entry, extent);
+          dataSize += newPage.getSpaceChange();
+          newFilter.add(entry.key);
+        }
+      }
+      filters.put(oldId.pid, oldFilter);
+      if (newId.pid != INVALID_PAGEID) {
+        filters.put(newId.pid, newFilter);
+      }
+
+      Minibase.BufferManager.unpinPage(oldId, UNPIN_DIRTY);
+      if (newId.pid != INVALID_PAGEID) {
+        Minibase.BufferManager.unpinPage(newId, UNPIN_DIRTY);
+      }
+
+    } // if
+
+    // add the new bucket and advance the split pointer
+    appendDirEntry(newId, depth);
+    if (++split == size) {
+      globalDepth++;
+      split = 0;
+    }
+
+  } // protected void splitBucket()
+
+  /**
+   * Adds an entry to the end of the bucket address table, extending the chain
+   * of directory pages if the last one is full.
+   */
+  protected void appendDirEntry(PageId pageno, byte depth) {
+
+    // add the entry in memory
+    if (dirSize == bucketIds.length) {
+      bucketIds = Arrays.copyOf(bucketIds, dirSize << 1);
+      depths = Arrays.copyOf(depths, dirSize << 1);
+    }
+    int ix = dirSize++;
+    bucketIds[ix] = pageno.pid;
+    depths[ix] = depth;
+
+    // add it to the last directory page, or to a new page if it's full
+    int page = HashDirPage.getPageOf(ix);
+    int count = ix - HashDirPage.getFirstEntry(page);
+    HashDirPage dirPage = new HashDirPage();
+    if (page < dirIds.length) {
+      PageId dirId = new PageId(dirIds[page]);
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+      dirPage.setHead(page == 0);
+      dirPage.setEntryCount((short) (count + 1));
+      dirPage.setPageId(count, pageno);
+      dirPage.setDepth(count, depth);
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+    } else {
+      HashDirPage newPage = new HashDirPage();
+      newPage.setEntryCount((short) 1);
+      newPage.setPageId(0, pageno);
+      newPage.setDepth(0, depth);
+      PageId newId = Minibase.BufferManager.newPage(newPage, 1);
+      Minibase.BufferManager.unpinPage(newId, UNPIN_DIRTY);
+
+      // link it from the previous last page
+      PageId dirId = new PageId(dirIds[page - 1]);
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+      dirPage.setNextPage(newId);
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+      dirIds = Arrays.copyOf(dirIds, page + 1);
+      dirIds[page] = newId.pid;
+    }
+
+  } // protected void appendDirEntry(PageId pageno, byte depth)
+
+  /**
+   * Writes the level, split pointer, and data size to the first directory page.
+   */
+  protected void writeHeader() {
+
+    HashDirPage dirPage = new HashDirPage(true);
+    Minibase.BufferManager.pinPage(headId, dirPage, PIN_DISKIO);
+    dirPage.setGlobalDepth((byte) globalDepth);
+    dirPage.setSplitPointer(split);
+    dirPage.setDataSize(dataSize);
+    Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+
+  } // protected void writeHeader()
+
+} // public class LinearHashIndex extends HashIndex
@@ -0,0 +1,96 @@
+package index;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the overflow pages of a bucket into the buffer pool in the
+ * background, following the list from a given page, so that long lists are
+ * read with overlapping I/O rather than one page at a time.  Reading stops
+ * at the first page already in the pool, so lists that are resident cost no
+ * more than a lookup.  Pages are read ahead without pinning them (see
+ * BufMgr.readAhead), so reading ahead never keeps a page from being changed
+ * or freed; if the list changes meanwhile, the wrong pages may be read, but
+ * no harm is done.
+ */
+class ReadAhead implements Runnable, GlobalConst {
+
+  /** Number of overflow pages to read ahead. */
+  protected static final int DEPTH = 8;
+
+  /** Number of threads reading ahead. */
+  protected static final int THREADS = 2;
+
+  /** Number of lists waiting to be read ahead; others are not read ahead. */
+  protected static final int QUEUE_SIZE = 64;
+
+  /** The threads reading ahead (daemons, so they don't keep Minibase up). */
+  protected static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+      THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+        public Thread newThread(Runnable task) {
+          Thread thread = new Thread(task, "Index read-ahead");
+          thread.setDaemon(true);
+          return thread;
+        }
+      }, new ThreadPoolExecutor.DiscardPolicy());
+
+  // --------------------------------------------------------------------------
+
+  /** Id of the first page to read. */
+  protected final int first;
+
+  /** How the pages will be used (i.e. ACCESS_RANDOM or ACCESS_ONCE). */
+  protected final int hint;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Reads ahead the list of pages starting from the given page (if valid,
+   * and not already in the buffer pool), which will be used as given by the
+   * hint.
+   */
+  public static void chain(PageId first, int hint) {
+    if (first.pid != INVALID_PAGEID
+        && !Minibase.BufferManager.isResident(first)) {
+      EXECUTOR.execute(new ReadAhead(first.pid, hint));
+    }
+  }
+
+  /**
+   * Constructs a task reading ahead from the given page.
+   */
+  protected ReadAhead(int first, int hint) {
+    this.first = first;
+    this.hint = hint;
+  }
+
+  /**
+   * Reads up to DEPTH pages of the list, stopping at the end of the list, at
+   * the first page already in the buffer pool, or if the pool is full (or
+   * the list is found to be invalid).
+   */
+  public void run() {
+
+    SortedPage page = new SortedPage();
+    PageId pageId = new PageId(first);
+    try {
+      for (int i = 0; i < DEPTH && pageId.pid != INVALID_PAGEID; ++i) {
+        if (!Minibase.BufferManager.readAhead(pageId, page, hint)) {
+          break;
+        }
+        pageId = page.getNextPage();
+      }
+    } catch (RuntimeException exc) {
+      // the list changed while being read
+    }
+
+  } // public void run()
+
+} // class ReadAhead implements Runnable, GlobalConst
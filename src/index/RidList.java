@@ -0,0 +1,215 @@
+package index;
+
+import global.Convert;
+import global.PageId;
+import global.RID;
+
+/**
+ * The RIDs of a posting list, as stored after its key on a SortedPage: the
+ * first RID in full (as written by RID.writeData), then each later one as
+ * its difference from the one before, in varints (seven bits per byte, low
+ * bits first, with the high bit set on all but the last byte): the page id's
+ * difference, then the slot number's difference if the page id is the same,
+ * or the slot number itself otherwise.  RIDs are kept in ascending order (by
+ * page id, then slot number), so the differences are small and never
+ * negative, and taking a RID out of a list never makes the rest longer.
+ * <br><br>
+ * An object of this class decodes a list one RID at a time, reading the
+ * page's data in place; the page must not change meanwhile (i.e. it must be
+ * kept pinned, and latched if others may change it).
+ */
+class RidList {
+
+  /** Size of the first RID of a list, stored in full. */
+  protected static final int FIRST_SIZE = 8;
+
+  /** Largest size of a later RID (i.e. two five-byte varints). */
+  protected static final int MAX_SIZE = 10;
+
+  // --------------------------------------------------------------------------
+
+  /** The page's data. */
+  protected final byte[] data;
+
+  /** Offset of the list's first RID. */
+  protected final int start;
+
+  /** Offset just after the list's last RID. */
+  protected final int end;
+
+  /** Offset of the next RID to decode. */
+  protected int offset;
+
+  /** Page id of the last RID decoded. */
+  protected int pid;
+
+  /** Slot number of the last RID decoded. */
+  protected int slotno;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a decoder of the list stored in the given data buffer, from
+   * the given offset up to (but not including) the given end.
+   */
+  public RidList(byte[] data, int offset, int end) {
+    this.data = data;
+    this.start = offset;
+    this.end = end;
+    this.offset = offset;
+  }
+
+  /**
+   * True if the list has more RIDs to decode; false otherwise.
+   */
+  public boolean hasNext() {
+    return (offset < end);
+  }
+
+  /**
+   * Decodes the next RID of the list.
+   */
+  public RID next() {
+    advance();
+    return new RID(new PageId(pid), slotno);
+  }
+
+  /**
+   * Decodes the next RID of the list into pid and slotno, without
+   * constructing it.
+   */
+  protected void advance() {
+
+    if (offset == start) {
+      pid = Convert.getIntValue(offset, data);
+      slotno = Convert.getIntValue(offset + 4, data);
+      offset += FIRST_SIZE;
+    } else {
+      int diff = readVarint();
+      if (diff == 0) {
+        slotno += readVarint();
+      } else {
+        pid += diff;
+        slotno = readVarint();
+      }
+    }
+
+  } // protected void advance()
+
+  /**
+   * Compares the last RID decoded to the given RID (see compare).
+   */
+  protected int compareTo(RID rid) {
+    int cmp = Integer.compare(pid, rid.pageno.pid);
+    return (cmp != 0) ? cmp : Integer.compare(slotno, rid.slotno);
+  }
+
+  /**
+   * Reads the varint at the current offset, and advances past it.
+   */
+  protected int readVarint() {
+
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = data[offset++];
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+
+  } // protected int readVarint()
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the number of RIDs in the list stored in the given data buffer,
+   * from the given offset up to the given end, without decoding them (as
+   * every later RID ends two varints).
+   */
+  public static int count(byte[] data, int offset, int end) {
+
+    if (offset == end) {
+      return 0;
+    }
+    int ends = 0;
+    for (int i = offset + FIRST_SIZE; i < end; i++) {
+      if (data[i] >= 0) {
+        ends++;
+      }
+    }
+    return 1 + ends / 2;
+
+  } // public static int count(byte[] data, int offset, int end)
+
+  /**
+   * Gets the size of the given RID when encoded after the given one (which
+   * must not be greater).
+   */
+  public static int getSize(RID last, RID rid) {
+    return getSize(last.pageno.pid, last.slotno, rid.pageno.pid, rid.slotno);
+  }
+
+  /**
+   * Gets the size of the RID with the given page id and slot number when
+   * encoded after the one with the given page id and slot number.
+   */
+  protected static int getSize(int lastPid, int lastSlotno, int pid, int slotno) {
+    int diff = pid - lastPid;
+    return getSize(diff) + getSize((diff == 0) ? slotno - lastSlotno : slotno);
+  }
+
+  /**
+   * Gets the size of the given value (taken as unsigned) as a varint.
+   */
+  protected static int getSize(int value) {
+    int size = 1;
+    while ((value & ~0x7f) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Writes the RID with the given page id and slot number, encoded after the
+   * one with the given page id and slot number, at the given offset.
+   *
+   * @return the offset after the encoded RID
+   */
+  protected static int write(byte[] data, int offset, int lastPid,
+      int lastSlotno, int pid, int slotno) {
+    int diff = pid - lastPid;
+    offset = writeVarint(data, offset, diff);
+    return writeVarint(data, offset, (diff == 0) ? slotno - lastSlotno : slotno);
+  }
+
+  /**
+   * Writes the given value (taken as unsigned) as a varint at the given
+   * offset.
+   *
+   * @return the offset after the varint
+   */
+  protected static int writeVarint(byte[] data, int offset, int value) {
+
+    while ((value & ~0x7f) != 0) {
+      data[offset++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    data[offset++] = (byte) value;
+    return offset;
+
+  } // protected static int writeVarint(byte[] data, int offset, int value)
+
+  /**
+   * Compares the given RIDs by page id, and then by slot number.
+   *
+   * @return a negative integer, zero, or a positive integer as the first RID
+   *         is less than, equal to, or greater than the second
+   */
+  public static int compare(RID rid1, RID rid2) {
+    int cmp = Integer.compare(rid1.pageno.pid, rid2.pageno.pid);
+    return (cmp != 0) ? cmp : Integer.compare(rid1.slotno, rid2.slotno);
+  }
+
+} // class RidList
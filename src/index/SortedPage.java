@@ -2,20 +2,31 @@ package index;
 
 import global.Page;
 import global.PageId;
+import global.RID;
 import global.SearchKey;
 
+import java.util.List;
+
 /**
  * A base class for index pages that automatically stores records in ascending
  * order by key value. SortedPage supports variable-length records by using a
  * slot directory, with the slots at the front and the records in the back, both
  * growing and shrinking into and from the free space in the middle of the page.
  * This structure is similar to HFPage except that rids can change; slots are 
- * always in order of search key and all slots are always full.  It will be used 
- * for BTree internal index pages and leaf data entry pages.
+ * always in order of search key and all slots are always full.  It is used for
+ * the pages of hash index buckets (see HashBucketPage), which store their data
+ * entries as posting lists.
+ * <br><br>
+ * Data entries with the same key are stored as one record (a "posting list"):
+ * the key, once, followed by the entries' RIDs in ascending order, each but
+ * the first encoded as its difference from the one before (see RidList).
+ * Each key thus has at most one slot on a page, and a duplicate entry only
+ * takes a few bytes, usually two.  A list that outgrows its page is continued
+ * on another page (e.g. later in a bucket's list of pages).
  */
 class SortedPage extends Page {
 
-  /** Offset of the number of entries. */
+  /** Offset of the number of keys (i.e. slots). */
   protected static final int ENTRY_CNT = 0;
 
   /** Offset of the used space pointer. */
@@ -37,6 +48,17 @@ class SortedPage extends Page {
 
   // --------------------------------------------------------------------------
 
+  /** Page id of the RID last appended (see appendEntry). */
+  protected int appendPid;
+
+  /** Slot number of the RID last appended. */
+  protected int appendSlotno;
+
+  /** End of the last record when a RID was last appended to it, or -1. */
+  protected int appendEnd = -1;
+
+  // --------------------------------------------------------------------------
+
   /**
    * Default constructor; creates a sorted page with default values.
    */
@@ -57,6 +79,8 @@ class SortedPage extends Page {
    */
   protected void initDefaults() {
 
+    resetAppend();
+
     // initially no slots in use
     setShortValue((short) 0, ENTRY_CNT);
 
@@ -68,23 +92,81 @@ class SortedPage extends Page {
 
   } // protected void initDefaults()
 
+  /**
+   * Sets this page's data array to share the given page's data array,
+   * forgetting the list last appended to (which was on another page).
+   */
+  public void setPage(Page page) {
+    super.setPage(page);
+    resetAppend();
+  }
+
+  /**
+   * Sets this page's data array, as above.
+   */
+  public void setData(byte[] data) {
+    super.setData(data);
+    resetAppend();
+  }
+
+  /**
+   * Forgets the RID and record last appended (see appendEntry), so that the
+   * next RID appended starts a new record.
+   */
+  protected void resetAppend() {
+    appendPid = 0;
+    appendSlotno = 0;
+    appendEnd = -1;
+  }
+
   // --------------------------------------------------------------------------
 
   /**
-   * Gets the number of entries on the page.
+   * Gets the number of keys (i.e. posting lists) on the page.
    */
-  public short getEntryCount() {
+  public short getKeyCount() {
     return getShortValue(ENTRY_CNT);
   }
 
+  /**
+   * Gets the number of data entries (i.e. RIDs) on the page.
+   */
+  public int getEntryCount() {
+
+    int count = 0;
+    int keyCnt = getKeyCount();
+    for (int i = 0; i < keyCnt; i++) {
+      count += getRidCount(i);
+    }
+    return count;
+
+  } // public int getEntryCount()
+
   /**
    * Gets the amount of free space (in bytes).
    */
   public short getFreeSpace() {
-    return (short) (getShortValue(USED_PTR) - (HEADER_SIZE + getEntryCount()
+    return (short) (getShortValue(USED_PTR) - (HEADER_SIZE + getKeyCount()
         * SLOT_SIZE));
   }
 
+  /**
+   * Gets the amount of space used by records and slots (in bytes).
+   */
+  public int getUsedSpace() {
+    return PAGE_SIZE - HEADER_SIZE - getFreeSpace();
+  }
+
+  /**
+   * Gets the amount of free space (in bytes) needed to insert the given data
+   * entry: at most that of an encoded RID if the page has its key, or a new
+   * record and slot otherwise.
+   */
+  public int getSpaceNeeded(DataEntry entry) {
+    return (findKey(entry.key) >= 0) ? RidList.MAX_SIZE
+        : entry.getLength() + SLOT_SIZE;
+  }
+
   /**
    * Gets the next page's id.
    */
@@ -119,41 +201,100 @@ class SortedPage extends Page {
    * @throws IllegalArgumentException if the slot number is invalid
    */
   protected void checkSlotno(int slotno) {
-    if ((slotno < 0) || (slotno > getEntryCount() - 1)) {
+    if ((slotno < 0) || (slotno > getKeyCount() - 1)) {
       throw new IllegalArgumentException("invalid slot number");
     }
   }
 
   /**
-   * Gets the data entry at the given slot number.
+   * Gets the search key from the data entry at the given slot number.
    * 
    * @throws IllegalArgumentException if the slot number is invalid
    */
-  public DataEntry getEntryAt(int slotno) {
+  public SearchKey getKeyAt(int slotno) {
     checkSlotno(slotno);
-    return new DataEntry(data, getSlotOffset(slotno));
+    return new SearchKey(data, getSlotOffset(slotno));
   }
 
   /**
-   * Gets the search key from the data entry at the given slot number.
+   * Gets the hash value of the search key at the given slot number, given
+   * the hash function and depth, from its stored bytes (i.e. without
+   * constructing it).
    * 
    * @throws IllegalArgumentException if the slot number is invalid
    */
-  public SearchKey getKeyAt(int slotno) {
+  public int getKeyHash(int slotno, int function, int depth) {
     checkSlotno(slotno);
-    return new SearchKey(data, getSlotOffset(slotno));
+    return SearchKey.getHash(data, getSlotOffset(slotno), function, depth);
+  }
+
+  /**
+   * Gets the number of RIDs in the posting list at the given slot number.
+   * 
+   * @throws IllegalArgumentException if the slot number is invalid
+   */
+  public int getRidCount(int slotno) {
+    checkSlotno(slotno);
+    return RidList.count(data, getRidsOffset(slotno), getRecordEnd(slotno));
+  }
+
+  /**
+   * Gets a decoder of the posting list at the given slot number, which reads
+   * its RIDs in order, without constructing its search key.
+   * 
+   * @throws IllegalArgumentException if the slot number is invalid
+   */
+  public RidList getRids(int slotno) {
+    checkSlotno(slotno);
+    return new RidList(data, getRidsOffset(slotno), getRecordEnd(slotno));
+  }
+
+  /**
+   * Adds the data entries of every posting list on the page to the given
+   * list, in order.
+   */
+  public void addEntriesTo(List<DataEntry> entries) {
+
+    int keyCnt = getKeyCount();
+    for (int i = 0; i < keyCnt; i++) {
+      SearchKey key = getKeyAt(i);
+      for (RidList list = getRids(i); list.hasNext(); ) {
+        entries.add(new DataEntry(key, list.next()));
+      }
+    }
+
+  } // public void addEntriesTo(List<DataEntry> entries)
+
+  /**
+   * Compares the search key at the given slot number to the given key, in
+   * place (i.e. without constructing the stored key).
+   * 
+   * @return a negative integer, zero, or a positive integer as the stored key
+   *         is less than, equal to, or greater than the given key
+   */
+  protected int compareKeyAt(int slotno, SearchKey key) {
+    return -key.compareTo(data, getSlotOffset(slotno));
   }
 
   // --------------------------------------------------------------------------
 
   /**
-   * Inserts a new record into the page in sorted order.
+   * Inserts a new data entry into the page in sorted order: its RID is added
+   * to the posting list of its key, or a new record is inserted for it.
    * 
    * @return true if inserting made this page dirty, false otherwise
    * @throws IllegalStateException if insufficient space
    */
   public boolean insertEntry(DataEntry entry) {
 
+    // add the RID to the key's list, if any
+    appendEnd = -1;
+    int slotno = findKey(entry.key);
+    if (slotno >= 0) {
+      insertRid(slotno, entry.rid);
+      return true;
+    }
+
     // first check for sufficient space
     short reclen = entry.getLength();
     short spaceNeeded = (short) (reclen + SLOT_SIZE);
@@ -161,16 +302,9 @@ class SortedPage extends Page {
       throw new IllegalStateException("insufficient space");
     }
 
-    // linear search for the appropriate slot
-    short i, slotCnt = getEntryCount();
-    for (i = 0; i < slotCnt; i++) {
-
-      // if the slot's key comes after the new key
-      if (getKeyAt(i).compareTo(entry.key) > 0) {
-        break;
-      }
-
-    } // for
+    // binary search for the appropriate slot, after any smaller keys
+    short slotCnt = getKeyCount();
+    short i = (short) findSlot(entry.key, true);
 
     // if inserting into the middle
     int slotpos = HEADER_SIZE + i * SLOT_SIZE;
@@ -197,31 +331,85 @@ class SortedPage extends Page {
   } // public boolean insertEntry(DataEntry entry)
 
   /**
-   * Deletes a data entry from the page, compacting the free space 
-   * (including the slot directory).
+   * Appends a new data entry after the last slot, without searching for its
+   * place (other than in the last posting list, if it has the same key);
+   * entries must be appended in ascending order by key (i.e. when bulk
+   * loading).
    * 
-   * @return true if deleting made this page dirty, false otherwise
-   * @throws IllegalArgumentException if the entry doesn't exist
+   * @return true if appending made this page dirty, false otherwise
+   * @throws IllegalStateException if insufficient space
    */
-  public boolean deleteEntry(DataEntry entry) {
+  public boolean appendEntry(DataEntry entry) {
+
+    // add the RID to the last list, if it has the same key: at its end, if
+    // it's the list last appended to (and the RID is in order)
+    short slotCnt = getKeyCount();
+    if (slotCnt > 0 && compareKeyAt(slotCnt - 1, entry.key) == 0) {
+      RID rid = entry.rid;
+      int end = getRecordEnd(slotCnt - 1);
+      if (end == appendEnd && (appendPid < rid.pageno.pid
+          || (appendPid == rid.pageno.pid && appendSlotno <= rid.slotno))) {
+        int length = RidList.getSize(appendPid, appendSlotno, rid.pageno.pid,
+            rid.slotno);
+        if (length > getFreeSpace()) {
+          throw new IllegalStateException("insufficient space");
+        }
+        RidList.write(data, replaceRange(slotCnt - 1, end, end, length),
+            appendPid, appendSlotno, rid.pageno.pid, rid.slotno);
+      } else {
+        insertRid(slotCnt - 1, rid);
+      }
+      appendPid = rid.pageno.pid;
+      appendSlotno = rid.slotno;
+      appendEnd = getRecordEnd(slotCnt - 1);
+      return true;
+    }
 
-    // linear search for the entry's slot
-    short i, slotCnt = getEntryCount();
-    for (i = 0; i < slotCnt; i++) {
+    // first check for sufficient space
+    short reclen = entry.getLength();
+    if (reclen + SLOT_SIZE > getFreeSpace()) {
+      throw new IllegalStateException("insufficient space");
+    }
 
-      // if the slot's entry matches the entry
-      if (getEntryAt(i).equals(entry)) {
-        break;
-      }
+    // update the entry count and used space offset
+    int slotpos = HEADER_SIZE + slotCnt * SLOT_SIZE;
+    setShortValue(++slotCnt, ENTRY_CNT);
+    short usedPtr = (short) (getShortValue(USED_PTR) - reclen);
+    setShortValue(usedPtr, USED_PTR);
 
-    } // for
+    // update the slot and write the record
+    setShortValue(reclen, slotpos);
+    setShortValue(usedPtr, slotpos + 2);
+    entry.writeData(data, usedPtr);
+    appendPid = entry.rid.pageno.pid;
+    appendSlotno = entry.rid.slotno;
+    appendEnd = usedPtr + reclen;
+    return true;
+
+  } // public boolean appendEntry(DataEntry entry)
 
-    // if the entry doesn't exist
-    if (i == slotCnt) {
+  /**
+   * Deletes a data entry from the page: its RID is removed from the posting
+   * list of its key, and the whole record if it was the last one, compacting
+   * the free space (including the slot directory).
+   * 
+   * @return true if deleting made this page dirty, false otherwise
+   * @throws IllegalArgumentException if the entry doesn't exist
+   */
+  public boolean deleteEntry(DataEntry entry) {
+
+    // binary search for the entry's key, then remove its RID from the list
+    appendEnd = -1;
+    int i = findKey(entry.key);
+    if ((i < 0) || !deleteRid(i, entry.rid)) {
       throw new IllegalArgumentException("entry doesn't exist");
     }
+    if (getSlotLength(i) > getRidsOffset(i) - getSlotOffset(i)) {
+      return true;
+    }
 
     // calculate the compacting values
+    short slotCnt = getKeyCount();
     short slotpos = (short) (HEADER_SIZE + i * SLOT_SIZE);
     short reclen = getSlotLength(i);
     short recoff = getSlotOffset(i);
@@ -252,28 +440,225 @@ class SortedPage extends Page {
 
   // --------------------------------------------------------------------------
 
-   /**
-   * Searches for the next entry that matches the given search key, and stored
-   * after the given slot.
+  /**
+   * Inserts the given RID into the posting list at the given slot number, in
+   * order (after any equal RIDs), in place: only the RID and the one after it
+   * (whose difference changes) are encoded, and the rest of the list moves.
    * 
-   * @return the slot number of the entry, or -1 if not found
+   * @throws IllegalStateException if insufficient space
    */
-  public int nextEntry(SearchKey key, int slotno) {
+  protected void insertRid(int slotno, RID rid) {
+
+    int start = getRidsOffset(slotno);
+    int end = getRecordEnd(slotno);
+    int pid = rid.pageno.pid;
+    RidList list = new RidList(data, start, end);
+
+    // a RID before the first one takes its place, and the first one follows
+    list.advance();
+    if (list.compareTo(rid) > 0) {
+      int length = RidList.FIRST_SIZE
+          + RidList.getSize(pid, rid.slotno, list.pid, list.slotno);
+      if (length - RidList.FIRST_SIZE > getFreeSpace()) {
+        throw new IllegalStateException("insufficient space");
+      }
+      int offset = replaceRange(slotno, start, start + RidList.FIRST_SIZE, length);
+      rid.writeData(data, (short) offset);
+      RidList.write(data, offset + RidList.FIRST_SIZE, pid, rid.slotno,
+          list.pid, list.slotno);
+      return;
+    }
 
-    // linear search for the entry's slot
-    int slotCnt = getEntryCount();
-    for (int i = slotno + 1; i < slotCnt; i++) {
+    // otherwise find the first greater RID (if any), after the one before it
+    int prevPid = list.pid;
+    int prevSlotno = list.slotno;
+    int from = list.offset;
+    boolean before = false;
+    while (list.hasNext()) {
+      list.advance();
+      if (list.compareTo(rid) > 0) {
+        before = true;
+        break;
+      }
+      prevPid = list.pid;
+      prevSlotno = list.slotno;
+      from = list.offset;
+    }
+
+    // encode the RID after the one before it, and the next one after it
+    int to = before ? list.offset : end;
+    int length = RidList.getSize(prevPid, prevSlotno, pid, rid.slotno);
+    if (before) {
+      length += RidList.getSize(pid, rid.slotno, list.pid, list.slotno);
+    }
+    if (length - (to - from) > getFreeSpace()) {
+      throw new IllegalStateException("insufficient space");
+    }
+    int offset = replaceRange(slotno, from, to, length);
+    offset = RidList.write(data, offset, prevPid, prevSlotno, pid, rid.slotno);
+    if (before) {
+      RidList.write(data, offset, pid, rid.slotno, list.pid, list.slotno);
+    }
 
-      // if the slot's entry matches the entry
-      if (getKeyAt(i).compareTo(key) == 0) {
-        return i;
+  } // protected void insertRid(int slotno, RID rid)
+
+  /**
+   * Removes the given RID from the posting list at the given slot number, in
+   * place: only the RID after it is encoded again (which never makes it
+   * longer), and the rest of the list moves.  A list that only holds the
+   * given RID is left empty (i.e. with only its key).
+   * 
+   * @return true if the RID was found and removed, false otherwise
+   */
+  protected boolean deleteRid(int slotno, RID rid) {
+
+    // find the RID, after the one before it
+    int start = getRidsOffset(slotno);
+    int end = getRecordEnd(slotno);
+    RidList list = new RidList(data, start, end);
+    int prevPid = 0;
+    int prevSlotno = 0;
+    int from = start;
+    while (true) {
+      if (!list.hasNext()) {
+        return false;
       }
+      from = list.offset;
+      list.advance();
+      int cmp = list.compareTo(rid);
+      if (cmp == 0) {
+        break;
+      } else if (cmp > 0) {
+        return false;
+      }
+      prevPid = list.pid;
+      prevSlotno = list.slotno;
+    }
+
+    // the last RID is simply cut off
+    if (!list.hasNext()) {
+      replaceRange(slotno, from, end, 0);
+      return true;
+    }
+
+    // otherwise the next RID is encoded again, in full if it becomes first
+    list.advance();
+    if (from == start) {
+      int offset = replaceRange(slotno, from, list.offset, RidList.FIRST_SIZE);
+      setIntValue(list.pid, offset);
+      setIntValue(list.slotno, offset + 4);
+    } else {
+      int offset = replaceRange(slotno, from, list.offset,
+          RidList.getSize(prevPid, prevSlotno, list.pid, list.slotno));
+      RidList.write(data, offset, prevPid, prevSlotno, list.pid, list.slotno);
+    }
+    return true;
 
-    } // for
+  } // protected boolean deleteRid(int slotno, RID rid)
 
-    // otherwise not found
+  /**
+   * Replaces the given range of bytes, in the record at the given slot
+   * number, with the given number of bytes (to be written by the caller),
+   * resizing the record to fit (space permitting).
+   * 
+   * @return the offset of the bytes to write
+   */
+  protected int replaceRange(int slotno, int from, int to, int length) {
+
+    int delta = length - (to - from);
+    if (delta != 0) {
+      resizeRecord(slotno, from, delta);
+    }
+    return to - length;
+
+  } // protected int replaceRange(int slotno, int from, int to, int length)
+
+  /**
+   * Grows (or shrinks) the record at the given slot number by the given
+   * number of bytes, at the given offset in the record: the records before
+   * it (at lower offsets, down to the used pointer) move down to make room,
+   * or up to fill the gap.  When growing, the new bytes are the ones just
+   * before the given offset, once the record has moved.
+   */
+  protected void resizeRecord(int slotno, int offset, int delta) {
+
+    // move the records up to the offset, and advance the used pointer
+    short usedPtr = getShortValue(USED_PTR);
+    System.arraycopy(data, usedPtr, data, usedPtr - delta, offset - usedPtr);
+    setShortValue((short) (usedPtr - delta), USED_PTR);
+
+    // adjust the offsets of the slots that refer to them
+    int slotCnt = getKeyCount();
+    for (int j = 0, n = HEADER_SIZE; j < slotCnt; j++, n += SLOT_SIZE) {
+      short chkoffset = getSlotOffset(j);
+      if (chkoffset < offset) {
+        setShortValue((short) (chkoffset - delta), n + 2);
+      }
+    }
+    setShortValue((short) (getSlotLength(slotno) + delta),
+        HEADER_SIZE + slotno * SLOT_SIZE);
+
+  } // protected void resizeRecord(int slotno, int offset, int delta)
+
+  /**
+   * Gets the offset of the RIDs of the posting list at the given slot number
+   * (i.e. just after its key).
+   */
+  protected int getRidsOffset(int slotno) {
+    int offset = getSlotOffset(slotno);
+    return offset + SearchKey.getLength(data, offset);
+  }
+
+  /**
+   * Gets the offset just after the record at the given slot number.
+   */
+  protected int getRecordEnd(int slotno) {
+    return getSlotOffset(slotno) + getSlotLength(slotno);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Searches for the posting list of the given search key.
+   * 
+   * @return the slot number of the list, or -1 if not found
+   */
+  public int findKey(SearchKey key) {
+
+    int i = findSlot(key, false);
+    if ((i < getKeyCount()) && (compareKeyAt(i, key) == 0)) {
+      return i;
+    }
     return -1;
 
-  } // public int nextEntry(SearchKey key, int slotno)
+  } // public int findKey(SearchKey key)
+
+  /**
+   * Binary searches the slot directory for the first slot whose key is
+   * greater than or equal to the given key, or strictly greater than it if
+   * after is true.
+   * 
+   * @return the slot number, or the entry count if there is no such slot
+   */
+  protected int findSlot(SearchKey key, boolean after) {
+
+    int low = 0;
+    int high = getKeyCount();
+    while (low < high) {
+
+      // keep the invariant: slots before low come before the one we want,
+      // and slots at or after high do not
+      int mid = (low + high) >>> 1;
+      int cmp = compareKeyAt(mid, key);
+      if ((cmp < 0) || (after && cmp == 0)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+
+    } // while
+    return low;
+
+  } // protected int findSlot(SearchKey key, boolean after)
 
 } // class SortedPage extends Page
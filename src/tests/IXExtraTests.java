@@ -1,10 +1,25 @@
 package tests;
 
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import diskmgr.Extent;
+import global.HashFunction;
+import global.Minibase;
+import global.Page;
 import global.PageId;
 import global.RID;
 import global.SearchKey;
 import index.HashIndex;
 import index.HashScan;
+import index.LinearHashIndex;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Test suite for the index layer.
@@ -47,6 +62,60 @@ class IXExtraTests extends TestDriver {
     status &= hft.test4();
     retval = true;
     status &= hft.test5();
+    retval = true;
+    status &= hft.test6();
+    retval = true;
+    status &= hft.test7();
+    retval = true;
+    status &= hft.test8();
+    retval = true;
+    status &= hft.test9();
+    retval = true;
+    status &= hft.test10();
+    retval = true;
+    status &= hft.test11();
+    retval = true;
+    status &= hft.test12();
+    retval = true;
+    status &= hft.test13();
+    retval = true;
+    status &= hft.test14();
+    retval = true;
+    status &= hft.test15();
+    retval = true;
+    status &= hft.test16();
+    retval = true;
+    status &= hft.test17();
+    retval = true;
+    status &= hft.test18();
+    retval = true;
+    status &= hft.test19();
+    retval = true;
+    status &= hft.test20();
+    retval = true;
+    status &= hft.test21();
+    retval = true;
+    status &= hft.test22();
+    retval = true;
+    status &= hft.test23();
+    retval = true;
+    status &= hft.test24();
+    retval = true;
+    status &= hft.test25();
+    retval = true;
+    status &= hft.test26();
+    retval = true;
+    status &= hft.test27();
+    retval = true;
+    status &= hft.test28();
+    retval = true;
+    status &= hft.test29();
+    retval = true;
+    status &= hft.test30();
+    retval = true;
+    status &= hft.test31();
+    retval = true;
+    status &= hft.test32();
 
     // display the final results
     System.out.println();
@@ -215,5 +284,2329 @@ class IXExtraTests extends TestDriver {
 	    return retval;
 
 	  } // protected boolean test5()
+
+  /**
+   * Extendible hashing, with keys that all fall into the same static bucket.
+   */
+  protected boolean test6() {
+
+    System.out.println();
+    System.out.println("Test 6: Extendible hash index with clustered keys");
+
+    System.out.println("\n  ~> building an extendible index of " + FILE_SIZE
+        + " integers...");
+    String fileName = "IX_Extendible";
+    HashIndex index = new HashIndex(fileName, HashIndex.EXTENDIBLE);
+    for (int i = 0; i < FILE_SIZE; i++) {
+      index.insertEntry(new SearchKey(i * 128), new RID(new PageId(i), 0));
+    }
+
+    index.close();
+    System.out.println("\n  ~> reopening and scanning all entries...");
+    index = new HashIndex(fileName);
+    CountingBufMgr bufmgr = countPins();
+    for (int i = 0; i < FILE_SIZE; i++) {
+      if (!contains(index, new SearchKey(i * 128), new RID(new PageId(i), 0))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+
+    // the directory is in memory, so a lookup pins only its bucket's pages
+    stopCountingPins();
+    System.out.println("     " + bufmgr.pins + " pages pinned");
+    if (bufmgr.pins > 2 * FILE_SIZE) {
+      System.out.println("  ERROR: More than 2 pins per lookup!");
+      retval = false;
+    }
+
+    System.out.println("\n  ~> deleting every other entry...");
+    for (int i = 0; i < FILE_SIZE; i += 2) {
+      index.deleteEntry(new SearchKey(i * 128), new RID(new PageId(i), 0));
+    }
+    for (int i = 0; i < FILE_SIZE; i++) {
+      boolean expected = (i % 2 == 1);
+      if (contains(index, new SearchKey(i * 128), new RID(new PageId(i), 0)) != expected) {
+        System.out.println("  ERROR: Unexpected scan result after delete!");
+        retval = false;
+      }
+    }
+
+    System.out.println("\n  ~> deleting the index file...");
+    index.deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 6 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test6()
+
+  /**
+   * Linear hashing, growing one bucket at a time.
+   */
+  protected boolean test7() {
+
+    System.out.println();
+    System.out.println("Test 7: Linear hash index with clustered keys");
+
+    System.out.println("\n  ~> building a linear index of " + FILE_SIZE
+        + " integers...");
+    String fileName = "IX_Linear";
+    HashIndex index = new LinearHashIndex(fileName);
+    for (int i = 0; i < FILE_SIZE; i++) {
+      index.insertEntry(new SearchKey(i * 128 + i % 3), new RID(new PageId(i), 0));
+    }
+
+    System.out.println("\n  ~> opening it as a static index...");
+    try {
+      new HashIndex(fileName);
+      System.out.println("     *** missing IllegalArgumentException");
+      retval = false;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("     *** failed as expected");
+    }
+
+    index.close();
+    System.out.println("\n  ~> reopening and scanning all entries...");
+    index = new LinearHashIndex(fileName);
+    for (int i = 0; i < FILE_SIZE; i++) {
+      if (!contains(index, new SearchKey(i * 128 + i % 3), new RID(new PageId(i), 0))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+
+    System.out.println("\n  ~> deleting every other entry...");
+    for (int i = 0; i < FILE_SIZE; i += 2) {
+      index.deleteEntry(new SearchKey(i * 128 + i % 3), new RID(new PageId(i), 0));
+    }
+    for (int i = 1; i < FILE_SIZE; i += 2) {
+      if (!contains(index, new SearchKey(i * 128 + i % 3), new RID(new PageId(i), 0))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+
+    System.out.println("\n  ~> deleting the index file...");
+    index.deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 7 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test7()
+
+  /**
+   * Extendible and linear indexes hashing string keys with a common prefix.
+   */
+  protected boolean test8() {
+
+    System.out.println();
+    System.out.println("Test 8: MurmurHash3 indexes with prefixed string keys");
+
+    // the keys differ only in their last characters, yet spread evenly
+    System.out.println("\n  ~> hashing " + FILE_SIZE + " strings into 128 buckets...");
+    int[] counts = new int[128];
+    for (int i = 0; i < FILE_SIZE; i++) {
+      counts[new SearchKey("CUST" + (100000 + i)).getHash(HashFunction.MURMUR3, 7)]++;
+    }
+    int max = 0;
+    for (int count : counts) {
+      max = Math.max(max, count);
+    }
+    System.out.println("     at most " + max + " keys in a bucket");
+    if (max > 2 * FILE_SIZE / counts.length) {
+      System.out.println("  ERROR: Uneven hash distribution!");
+      retval = false;
+    }
+
+    for (int type = 1; type <= 2; type++) {
+
+      System.out.println("\n(type == " + type + ")");
+      System.out.println("\n  ~> building an index of " + FILE_SIZE
+          + " strings...");
+      String fileName = "IX_Murmur" + type;
+      HashIndex index;
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName, LinearHashIndex.DEFAULT_LOAD,
+            HashFunction.MURMUR3);
+      } else {
+        index = new HashIndex(fileName, type, HashFunction.MURMUR3);
+      }
+      for (int i = 0; i < FILE_SIZE; i++) {
+        index.insertEntry(new SearchKey("CUST" + (100000 + i)), new RID(new PageId(i), 0));
+      }
+
+      // the hash function must be read back from the directory
+      index.close();
+      System.out.println("\n  ~> reopening and scanning all entries...");
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName);
+      } else {
+        index = new HashIndex(fileName);
+      }
+      for (int i = 0; i < FILE_SIZE; i++) {
+        if (!contains(index, new SearchKey("CUST" + (100000 + i)), new RID(new PageId(i), 0))) {
+          System.out.println("  ERROR: Search key not found in scan!");
+          retval = false;
+        }
+      }
+
+      System.out.println("\n  ~> deleting all entries...");
+      for (int i = 0; i < FILE_SIZE; i++) {
+        index.deleteEntry(new SearchKey("CUST" + (100000 + i)), new RID(new PageId(i), 0));
+      }
+
+      System.out.println("\n  ~> deleting the index file...");
+      index.deleteFile();
+
+    } // for type
+
+    // an unknown hash function in the directory (e.g. from a newer version)
+    System.out.println("\n  ~> opening an index with an unknown hash function...");
+    HashIndex index = new HashIndex("IX_Unknown", HashIndex.STATIC);
+    index.close();
+    PageId headId = Minibase.DiskManager.get_file_entry("IX_Unknown");
+    Page page = new Page();
+    Minibase.BufferManager.pinPage(headId, page, PIN_DISKIO);
+    page.getData()[18] = 99;
+    Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+    try {
+      new HashIndex("IX_Unknown");
+      System.out.println("     *** missing IllegalArgumentException");
+      retval = false;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("     *** failed as expected");
+    }
+    Minibase.BufferManager.pinPage(headId, page, PIN_DISKIO);
+    page.getData()[18] = HashFunction.DEFAULT;
+    Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+    new HashIndex("IX_Unknown").deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 8 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test8()
+
+  /**
+   * Bulk loading each type of index, then inserting into and deleting from it.
+   */
+  protected boolean test9() {
+
+    System.out.println();
+    System.out.println("Test 9: Bulk loading with duplicate keys");
+
+    for (int type = 0; type <= 2; type++) {
+
+      System.out.println("\n(type == " + type + ")");
+      System.out.println("\n  ~> bulk loading an index of " + FILE_SIZE
+          + " integers...");
+      String fileName = "IX_Bulk" + type;
+      HashIndex index;
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName);
+      } else {
+        index = new HashIndex(fileName, type);
+      }
+      ArrayList<Map.Entry<SearchKey, RID>> entries =
+          new ArrayList<Map.Entry<SearchKey, RID>>();
+      for (int i = 0; i < FILE_SIZE; i++) {
+        entries.add(new AbstractMap.SimpleEntry<SearchKey, RID>(
+            new SearchKey(i / 2 * 128), new RID(new PageId(i), 0)));
+      }
+      index.bulkLoad(entries.iterator());
+
+      System.out.println("\n  ~> bulk loading it again...");
+      try {
+        index.bulkLoad(entries.iterator());
+        System.out.println("     *** missing IllegalStateException");
+        retval = false;
+      } catch (IllegalStateException exc) {
+        System.out.println("     *** failed as expected");
+      }
+
+      index.close();
+      System.out.println("\n  ~> reopening and inserting more entries...");
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName);
+      } else {
+        index = new HashIndex(fileName);
+      }
+      for (int i = FILE_SIZE; i < 2 * FILE_SIZE; i++) {
+        index.insertEntry(new SearchKey(i / 2 * 128), new RID(new PageId(i), 0));
+      }
+
+      System.out.println("\n  ~> scanning all entries...");
+      for (int i = 0; i < 2 * FILE_SIZE; i++) {
+        if (!contains(index, new SearchKey(i / 2 * 128), new RID(new PageId(i), 0))) {
+          System.out.println("  ERROR: Search key not found in scan!");
+          retval = false;
+        }
+      }
+
+      System.out.println("\n  ~> deleting all entries...");
+      for (int i = 0; i < 2 * FILE_SIZE; i++) {
+        index.deleteEntry(new SearchKey(i / 2 * 128), new RID(new PageId(i), 0));
+      }
+
+      System.out.println("\n  ~> deleting the index file...");
+      index.deleteFile();
+
+    } // for type
+
+    if (retval) {
+      System.out.println("\nTest 9 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test9()
+
+  /**
+   * Bulk loading each type of index with several threads.
+   */
+  protected boolean test10() {
+
+    System.out.println();
+    System.out.println("Test 10: Parallel bulk loading");
+
+    int size = 10 * FILE_SIZE;
+    for (int type = 0; type <= 2; type++) {
+
+      System.out.println("\n(type == " + type + ")");
+      System.out.println("\n  ~> bulk loading an index of " + size
+          + " strings with 4 threads...");
+      String fileName = "IX_Parallel" + type;
+      HashIndex index;
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName, LinearHashIndex.DEFAULT_LOAD,
+            HashFunction.MURMUR3);
+      } else {
+        index = new HashIndex(fileName, type, HashFunction.MURMUR3);
+      }
+      ArrayList<Map.Entry<SearchKey, RID>> entries =
+          new ArrayList<Map.Entry<SearchKey, RID>>();
+      for (int i = 0; i < size; i++) {
+        entries.add(new AbstractMap.SimpleEntry<SearchKey, RID>(
+            new SearchKey("KEY" + (i % (size / 4))), new RID(new PageId(i), 0)));
+      }
+      index.bulkLoad(entries.iterator(), 4);
+
+      System.out.println("\n  ~> scanning all entries...");
+      for (int i = 0; i < size; i++) {
+        if (!contains(index, new SearchKey("KEY" + (i % (size / 4))), new RID(new PageId(i), 0))) {
+          System.out.println("  ERROR: Search key not found in scan!");
+          retval = false;
+        }
+      }
+
+      System.out.println("\n  ~> deleting the index file...");
+      index.deleteFile();
+
+    } // for type
+
+    // with one thread, nothing runs outside of the calling thread
+    System.out.println("\n  ~> bulk loading " + size + " integers with 1 thread...");
+    CallerIndex index = new CallerIndex("IX_OneThread");
+    ArrayList<Map.Entry<SearchKey, RID>> entries =
+        new ArrayList<Map.Entry<SearchKey, RID>>();
+    for (int i = 0; i < size; i++) {
+      entries.add(new AbstractMap.SimpleEntry<SearchKey, RID>(
+          new SearchKey(i), new RID(new PageId(i), 0)));
+    }
+    index.bulkLoad(entries.iterator(), 1);
+    if (index.elsewhere) {
+      System.out.println("  ERROR: Bulk load ran in another thread!");
+      retval = false;
+    }
+    for (int i = 0; i < size; i += 7) {
+      if (!contains(index, new SearchKey(i), new RID(new PageId(i), 0))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+    index.deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 10 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test10()
+
+  /**
+   * Batched lookups, including missing and repeated keys.
+   */
+  protected boolean test11() {
+
+    System.out.println();
+    System.out.println("Test 11: Batched lookups");
+
+    for (int type = 0; type <= 2; type++) {
+
+      System.out.println("\n(type == " + type + ")");
+      System.out.println("\n  ~> building an index of " + FILE_SIZE
+          + " integers...");
+      String fileName = "IX_Lookup" + type;
+      HashIndex index;
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName);
+      } else {
+        index = new HashIndex(fileName, type);
+      }
+      for (int i = 0; i < FILE_SIZE; i++) {
+        index.insertEntry(new SearchKey(i % 1000 * 128), new RID(new PageId(i), 0));
+      }
+
+      // every third key is missing, and every key is probed twice
+      System.out.println("\n  ~> looking up " + (2 * 1500) + " keys at once...");
+      SearchKey[] keys = new SearchKey[2 * 1500];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = new SearchKey(i % 1500 * 128);
+      }
+      CountingBufMgr bufmgr = countPins();
+      RID[][] rids = index.lookupAll(keys);
+      int batchPins = bufmgr.pins;
+
+      // a batch pins each bucket once, rather than once per key
+      for (SearchKey key : keys) {
+        index.lookupAll(new SearchKey[] { key });
+      }
+      int singlePins = bufmgr.pins - batchPins;
+      stopCountingPins();
+      System.out.println("     " + batchPins + " pages pinned, versus "
+          + singlePins + " one key at a time");
+      if (batchPins >= singlePins) {
+        System.out.println("  ERROR: Batch pinned as many pages as single lookups!");
+        retval = false;
+      }
+
+      for (int i = 0; i < keys.length; i++) {
+        int key = i % 1500;
+        int expected = (key < 1000) ? FILE_SIZE / 1000 : 0;
+        if (rids[i].length != expected) {
+          System.out.println("  ERROR: Wrong number of RIDs for a key!");
+          retval = false;
+        }
+        for (int j = 0; j < rids[i].length; j++) {
+          if (rids[i][j].pageno.pid % 1000 != key) {
+            System.out.println("  ERROR: Wrong RID for a key!");
+            retval = false;
+          }
+        }
+      }
+
+      System.out.println("\n  ~> deleting the index file...");
+      index.deleteFile();
+
+    } // for type
+
+    if (retval) {
+      System.out.println("\nTest 11 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test11()
+
+  /**
+   * Extendible and linear indexes whose directories span several pages.
+   */
+  protected boolean test12() {
+
+    System.out.println();
+    System.out.println("Test 12: Directories larger than one page");
+
+    int size = 10 * FILE_SIZE;
+    for (int type = 1; type <= 2; type++) {
+
+      System.out.println("\n(type == " + type + ")");
+      System.out.println("\n  ~> building an index of " + size
+          + " integers...");
+      String fileName = "IX_BigDir" + type;
+      HashIndex index;
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName, LinearHashIndex.DEFAULT_LOAD,
+            HashFunction.MURMUR3);
+      } else {
+        index = new HashIndex(fileName, type, HashFunction.MURMUR3);
+      }
+      for (int i = 0; i < size; i++) {
+        index.insertEntry(new SearchKey(i), new RID(new PageId(i), 0));
+      }
+
+      index.close();
+      System.out.println("\n  ~> reopening and scanning all entries...");
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName);
+      } else {
+        index = new HashIndex(fileName);
+      }
+
+      // watch the directory pages (following the next page id of each
+      // page, at offset 2)
+      CountingBufMgr bufmgr = countPins();
+      Page page = new Page();
+      PageId pageno = Minibase.DiskManager.get_file_entry(fileName);
+      while (pageno.pid != INVALID_PAGEID) {
+        bufmgr.watched.add(pageno.pid);
+        Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+        PageId next = new PageId(page.getIntValue(2));
+        Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+        pageno = next;
+      }
+      if (bufmgr.watched.size() < 2) {
+        System.out.println("  ERROR: Directory fits on one page!");
+        retval = false;
+      }
+      int dirPins = bufmgr.watchedPins;
+
+      for (int i = 0; i < size; i++) {
+        if (!contains(index, new SearchKey(i), new RID(new PageId(i), 0))) {
+          System.out.println("  ERROR: Search key not found in scan!");
+          retval = false;
+        }
+      }
+
+      // the directory is in memory, so lookups don't pin its pages
+      stopCountingPins();
+      if (bufmgr.watchedPins != dirPins) {
+        System.out.println("  ERROR: Directory pages pinned by lookups!");
+        retval = false;
+      }
+
+      System.out.println("\n  ~> deleting all entries...");
+      for (int i = 0; i < size; i++) {
+        index.deleteEntry(new SearchKey(i), new RID(new PageId(i), 0));
+      }
+
+      System.out.println("\n  ~> deleting the index file...");
+      index.deleteFile();
+
+    } // for type
+
+    if (retval) {
+      System.out.println("\nTest 12 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test12()
+
+  /**
+   * Concurrent inserts, scans and deletes on each type of index.
+   */
+  protected boolean test13() {
+
+    System.out.println();
+    System.out.println("Test 13: Concurrent inserts, scans and deletes");
+
+    final int threads = 4;
+    for (int type = 0; type <= 2; type++) {
+
+      System.out.println("\n(type == " + type + ")");
+      String fileName = "IX_Concurrent" + type;
+      final HashIndex index;
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName, LinearHashIndex.DEFAULT_LOAD,
+            HashFunction.MURMUR3);
+      } else {
+        index = new HashIndex(fileName, type, HashFunction.MURMUR3);
+      }
+      index.setConcurrent(true);
+
+      // each thread inserts the same keys, with its own RIDs, while scanning
+      System.out.println("\n  ~> inserting " + FILE_SIZE + " integers in each of "
+          + threads + " threads...");
+      runThreads(threads, new Task() {
+        public void run(int thread) {
+          for (int i = 0; i < FILE_SIZE; i++) {
+            index.insertEntry(new SearchKey(i), new RID(new PageId(i), thread));
+            if (i % 10 == 0) {
+              contains(index, new SearchKey(i / 2), new RID(new PageId(i / 2), thread));
+            }
+          }
+        }
+      });
+
+      System.out.println("\n  ~> scanning all entries...");
+      for (int i = 0; i < FILE_SIZE; i++) {
+        for (int t = 0; t < threads; t++) {
+          if (!contains(index, new SearchKey(i), new RID(new PageId(i), t))) {
+            System.out.println("  ERROR: Search key not found in scan!");
+            retval = false;
+          }
+        }
+      }
+
+      System.out.println("\n  ~> deleting all entries in " + threads + " threads...");
+      runThreads(threads, new Task() {
+        public void run(int thread) {
+          for (int i = 0; i < FILE_SIZE; i++) {
+            index.deleteEntry(new SearchKey(i), new RID(new PageId(i), thread));
+          }
+        }
+      });
+      for (int i = 0; i < FILE_SIZE; i++) {
+        if (index.openScan(new SearchKey(i)).getNext() != null) {
+          System.out.println("  ERROR: Deleted search key found in scan!");
+          retval = false;
+        }
+      }
+
+      System.out.println("\n  ~> deleting the index file...");
+      index.deleteFile();
+
+    } // for type
+
+    if (retval) {
+      System.out.println("\nTest 13 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test13()
+
+  /**
+   * Scans the index without latching while other threads change it, then
+   * checks that the emptied overflow pages were freed.
+   */
+  protected boolean test14() {
+
+    System.out.println();
+    System.out.println("Test 14: Optimistic scans during inserts and deletes");
+
+    final int threads = 4;
+    for (int type = 0; type <= 2; type++) {
+
+      System.out.println("\n(type == " + type + ")");
+      String fileName = "IX_Optimistic" + type;
+      int allocs = Minibase.DiskManager.getAllocCount();
+      final HashIndex index;
+      if (type == HashIndex.LINEAR) {
+        index = new LinearHashIndex(fileName);
+      } else {
+        index = new HashIndex(fileName, type);
+      }
+      index.setConcurrent(true);
+
+      System.out.println("\n  ~> inserting " + FILE_SIZE + " integers...");
+      for (int i = 0; i < FILE_SIZE; i++) {
+        index.insertEntry(new SearchKey(i), new RID(new PageId(i), 0));
+      }
+      int pages = Minibase.DiskManager.getAllocCount() - allocs;
+
+      // one thread inserts and deletes other keys (splitting the buckets),
+      // while the others scan for the first ones
+      System.out.println("\n  ~> scanning in " + (threads - 1)
+          + " threads while inserting and deleting in another...");
+      runThreads(threads, new Task() {
+        public void run(int thread) {
+          if (thread == 0) {
+            for (int i = 0; i < FILE_SIZE; i++) {
+              index.insertEntry(new SearchKey(FILE_SIZE + i), new RID(new PageId(i), 1));
+            }
+            for (int i = 0; i < FILE_SIZE; i++) {
+              index.deleteEntry(new SearchKey(FILE_SIZE + i), new RID(new PageId(i), 1));
+            }
+            return;
+          }
+          for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < FILE_SIZE; i++) {
+              HashScan scan = index.openScan(new SearchKey(i));
+              RID rid = scan.getNext();
+              if (rid == null || !rid.equals(new RID(new PageId(i), 0))
+                  || scan.getNext() != null) {
+                throw new IllegalStateException("wrong scan result for key " + i);
+              }
+              scan.close();
+            }
+          }
+        }
+      });
+
+      // static buckets are not split, so only freeing the overflow pages
+      // shrinks them back to their primary pages
+      System.out.println("\n  ~> overflowing the buckets, then deleting all entries...");
+      for (int i = 0; i < 4 * FILE_SIZE; i++) {
+        index.insertEntry(new SearchKey(FILE_SIZE + i), new RID(new PageId(i), 1));
+      }
+      for (int i = 0; i < 4 * FILE_SIZE; i++) {
+        index.deleteEntry(new SearchKey(FILE_SIZE + i), new RID(new PageId(i), 1));
+      }
+      for (int i = 0; i < FILE_SIZE; i++) {
+        index.deleteEntry(new SearchKey(i), new RID(new PageId(i), 0));
+      }
+      if (type == HashIndex.STATIC
+          && Minibase.DiskManager.getAllocCount() - allocs > pages) {
+        System.out.println("  ERROR: Emptied overflow pages left allocated!");
+        retval = false;
+      }
+
+      System.out.println("\n  ~> deleting the index file...");
+      index.deleteFile();
+
+    } // for type
+
+    if (retval) {
+      System.out.println("\nTest 14 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test14()
+
+  /**
+   * Runs an index larger than the buffer pool with each replacement policy.
+   */
+  protected boolean test15() {
+
+    System.out.println();
+    System.out.println("Test 15: Buffer replacement policies");
+
+    String[] names = { "CLOCK", "LRU_K", "TWO_Q", "ARC" };
+    int[] policies = { BufMgr.CLOCK, BufMgr.LRU_K, BufMgr.TWO_Q, BufMgr.ARC };
+    for (int p = 0; p < policies.length; p++) {
+
+      System.out.println("\n(policy == " + names[p] + ")");
+      Minibase.BufferManager.flushAllFrames();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE, policies[p]);
+      HashIndex index = new HashIndex("IX_Policy" + p, HashIndex.EXTENDIBLE);
+
+      int size = FILE_SIZE * 4;
+      System.out.println("\n  ~> inserting and scanning " + size + " integers...");
+      for (int i = 0; i < size; i++) {
+        index.insertEntry(new SearchKey(i), new RID(new PageId(i), 0));
+      }
+      for (int i = 0; i < size; i += 7) {
+        if (!contains(index, new SearchKey(i), new RID(new PageId(i), 0))) {
+          System.out.println("  ERROR: Search key not found in scan!");
+          retval = false;
+        }
+      }
+
+      System.out.println("\n  ~> deleting the index file...");
+      index.deleteFile();
+      if (Minibase.BufferManager.getNumUnpinned() != BUF_SIZE) {
+        System.out.println("  ERROR: Pages left pinned!");
+        retval = false;
+      }
+
+    } // for policy
+
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.BufferManager = new BufMgr(BUF_SIZE);
+    try {
+      new BufMgr(BUF_SIZE, -1);
+      System.out.println("  ERROR: Invalid policy accepted!");
+      retval = false;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("\n  ~> invalid policy rejected");
+    }
+
+    // a pinned page may be changing, so it is only written once unpinned
+    System.out.println("\n  ~> flushing while a dirty page is pinned...");
+    Page page = new Page();
+    PageId pageno = Minibase.BufferManager.newPage(page, 1);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+    Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+    int writes = Minibase.DiskManager.getWriteCount();
+    Minibase.BufferManager.flushAllFrames();
+    if (Minibase.DiskManager.getWriteCount() != writes) {
+      System.out.println("  ERROR: Pinned page written!");
+      retval = false;
+    }
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+    Minibase.BufferManager.flushAllFrames();
+    if (Minibase.DiskManager.getWriteCount() == writes) {
+      System.out.println("  ERROR: Unpinned page not written!");
+      retval = false;
+    }
+    Minibase.BufferManager.freePage(pageno);
+
+    if (retval) {
+      System.out.println("\nTest 15 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test15()
+
+  /**
+   * Pins and unpins pages from many threads at once, with each replacement
+   * policy, checking their contents.
+   */
+  protected boolean test16() {
+
+    System.out.println();
+    System.out.println("Test 16: Concurrent pinning in the buffer manager");
+
+    String[] names = { "CLOCK", "LRU_K", "TWO_Q", "ARC" };
+    int[] policies = { BufMgr.CLOCK, BufMgr.LRU_K, BufMgr.TWO_Q, BufMgr.ARC };
+    for (int p = 0; p < policies.length; p++) {
+
+      System.out.println("\n(policy == " + names[p] + ")");
+      Minibase.BufferManager.flushAllFrames();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE, policies[p]);
+
+      // stamp each page with its own id
+      final int size = BUF_SIZE * 3;
+      final PageId[] pageIds = new PageId[size];
+      for (int i = 0; i < size; i++) {
+        Page page = new Page();
+        pageIds[i] = Minibase.BufferManager.newPage(page, 1);
+        page.setIntValue(pageIds[i].pid, 0);
+        Minibase.BufferManager.unpinPage(pageIds[i], UNPIN_DIRTY);
+      }
+
+      // each thread pins a few pages at a time, favoring the first ones
+      final int threads = 8;
+      System.out.println("\n  ~> pinning " + size + " pages in " + threads + " threads...");
+      runThreads(threads, new Task() {
+        public void run(int thread) {
+          Page[] pages = { new Page(), new Page() };
+          PageId[] pinned = new PageId[pages.length];
+          for (int i = 0; i < FILE_SIZE * 10; i++) {
+            for (int j = 0; j < pages.length; j++) {
+              int n = (i * 31 + j * 17 + thread) % size;
+              pinned[j] = pageIds[(i % 4 == 0) ? n : n % BUF_SIZE / 2];
+              Minibase.BufferManager.pinPage(pinned[j], pages[j], PIN_DISKIO);
+              if (pages[j].getIntValue(0) != pinned[j].pid) {
+                throw new IllegalStateException("wrong page contents");
+              }
+            }
+            for (int j = pages.length - 1; j >= 0; j--) {
+              Minibase.BufferManager.unpinPage(pinned[j], UNPIN_CLEAN);
+            }
+          }
+        }
+      });
+
+      System.out.println("\n  ~> freeing the pages...");
+      for (int i = 0; i < size; i++) {
+        Minibase.BufferManager.freePage(pageIds[i]);
+      }
+      if (Minibase.BufferManager.getNumUnpinned() != BUF_SIZE) {
+        System.out.println("  ERROR: Pages left pinned!");
+        retval = false;
+      }
+
+    } // for policy
+
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.BufferManager = new BufMgr(BUF_SIZE);
+
+    if (retval) {
+      System.out.println("\nTest 16 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test16()
+
+  /**
+   * Checks that summarizing and deleting an index larger than the buffer
+   * pool doesn't replace the pages in use.
+   */
+  protected boolean test17() {
+
+    System.out.println();
+    System.out.println("Test 17: Maintenance scans and the buffer pool");
+
+    HashIndex index = new HashIndex("IX_Maintenance", HashIndex.EXTENDIBLE);
+    System.out.println("\n  ~> inserting " + FILE_SIZE * 4 + " integers...");
+    for (int i = 0; i < FILE_SIZE * 4; i++) {
+      index.insertEntry(new SearchKey(i), new RID(new PageId(i), 0));
+    }
+
+    // read in a set of other pages, used over and over
+    int size = BUF_SIZE / 2;
+    PageId[] pageIds = new PageId[size];
+    Page page = new Page();
+    for (int i = 0; i < size; i++) {
+      pageIds[i] = Minibase.BufferManager.newPage(page, 1);
+      Minibase.BufferManager.unpinPage(pageIds[i], UNPIN_DIRTY);
+    }
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < size; i++) {
+        Minibase.BufferManager.pinPage(pageIds[i], page, PIN_DISKIO);
+        Minibase.BufferManager.unpinPage(pageIds[i], UNPIN_CLEAN);
+      }
+    }
+
+    System.out.println("\n  ~> summarizing and deleting the index file...");
+    java.io.PrintStream out = System.out;
+    System.setOut(new java.io.PrintStream(new java.io.ByteArrayOutputStream()));
+    try {
+      index.printSummary();
+    } finally {
+      System.setOut(out);
+    }
+    index.deleteFile();
+
+    // at most a few of the pages in use should have been replaced
+    int reads = Minibase.DiskManager.getReadCount();
+    for (int i = 0; i < size; i++) {
+      Minibase.BufferManager.pinPage(pageIds[i], page, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(pageIds[i], UNPIN_CLEAN);
+    }
+    reads = Minibase.DiskManager.getReadCount() - reads;
+    System.out.println("\n  ~> " + reads + " of " + size + " pages read again");
+    if (reads > size / 4) {
+      System.out.println("  ERROR: Pages in use were replaced!");
+      retval = false;
+    }
+    for (int i = 0; i < size; i++) {
+      Minibase.BufferManager.freePage(pageIds[i]);
+    }
+
+    if (retval) {
+      System.out.println("\nTest 17 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test17()
+
+  /**
+   * Reads and writes pages on disk from many threads at once.
+   */
+  protected boolean test18() {
+
+    System.out.println();
+    System.out.println("Test 18: Concurrent disk reads and writes");
+
+    // each thread stamps every page with its own id
+    final int threads = 8;
+    final int size = BUF_SIZE;
+    final PageId first = Minibase.DiskManager.allocate_page(threads * size);
+    int reads = Minibase.DiskManager.getReadCount();
+    int writes = Minibase.DiskManager.getWriteCount();
+    System.out.println("\n  ~> writing " + threads * size + " pages in " + threads + " threads...");
+    runThreads(threads, new Task() {
+      public void run(int thread) {
+        Page page = new Page();
+        for (int i = thread; i < threads * size; i += threads) {
+          page.setIntValue(first.pid + i, 0);
+          Minibase.DiskManager.write_page(new PageId(first.pid + i), page);
+        }
+      }
+    });
+
+    // and then reads all of them, starting at different pages
+    System.out.println("\n  ~> reading them in " + threads + " threads...");
+    runThreads(threads, new Task() {
+      public void run(int thread) {
+        Page page = new Page();
+        for (int pass = 0; pass < 4; pass++) {
+          for (int i = 0; i < threads * size; i++) {
+            int n = (i + thread * size) % (threads * size);
+            Minibase.DiskManager.read_page(new PageId(first.pid + n), page);
+            if (page.getIntValue(0) != first.pid + n) {
+              throw new IllegalStateException("wrong page contents");
+            }
+          }
+        }
+      }
+    });
+
+    // no reads or writes should be lost in the counts
+    reads = Minibase.DiskManager.getReadCount() - reads;
+    writes = Minibase.DiskManager.getWriteCount() - writes;
+    if (reads != threads * threads * size * 4 || writes != threads * size) {
+      System.out.println("  ERROR: Wrong read or write count!");
+      retval = false;
+    }
+    Minibase.DiskManager.deallocate_page(first, threads * size);
+
+    if (retval) {
+      System.out.println("\nTest 18 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test18()
+
+  /**
+   * Runs an index larger than the buffer pool on a memory-mapped file.
+   */
+  protected boolean test19() {
+
+    System.out.println();
+    System.out.println("Test 19: Memory-mapped database file");
+
+    // open the database again, mapped
+    Minibase.BufferManager.flushAllFrames();
+    DiskMgr disk = Minibase.DiskManager;
+    DiskMgr mapped = new DiskMgr(true);
+    mapped.openDB(Minibase.DatabaseName);
+    Minibase.DiskManager = mapped;
+
+    HashIndex index = new HashIndex("IX_Mapped", HashIndex.EXTENDIBLE);
+    int size = FILE_SIZE * 4;
+    System.out.println("\n  ~> inserting and scanning " + size + " integers...");
+    for (int i = 0; i < size; i++) {
+      index.insertEntry(new SearchKey(i), new RID(new PageId(i), 0));
+    }
+    for (int i = 0; i < size; i += 7) {
+      if (!contains(index, new SearchKey(i), new RID(new PageId(i), 0))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+    if (mapped.getReadCount() == 0 || mapped.getWriteCount() == 0) {
+      System.out.println("  ERROR: Pages not read and written when mapped!");
+      retval = false;
+    }
+    index.deleteFile();
+
+    // pages written to the mapped file should be on disk once flushed
+    Page page = new Page();
+    PageId pageno = Minibase.BufferManager.newPage(page, 1);
+    page.setIntValue(pageno.pid, 0);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+    mapped.closeDB();
+    Minibase.DiskManager = disk;
+    Minibase.BufferManager.setReadAhead(true);
+    System.out.println("\n  ~> reading a mapped page from disk...");
+    Page copy = new Page();
+    disk.read_page(pageno, copy);
+    if (copy.getIntValue(0) != pageno.pid) {
+      System.out.println("  ERROR: Mapped page not written to disk!");
+      retval = false;
+    }
+    Minibase.BufferManager.freePage(pageno);
+
+    if (retval) {
+      System.out.println("\nTest 19 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test19()
+
+  /**
+   * Reads and writes pages in batches, in and out of order.
+   */
+  protected boolean test20() {
+
+    System.out.println();
+    System.out.println("Test 20: Batched disk reads and writes");
+
+    // stamp two runs of pages, given in reverse order, and the first twice
+    int size = 40;
+    PageId first = Minibase.DiskManager.allocate_page(size);
+    PageId[] pageIds = new PageId[size];
+    Page[] pages = new Page[size];
+    for (int i = 0; i < size; i++) {
+      int n = (i == size - 1) ? 0 : (i < size / 2) ? size - 1 - i : size - 2 - i;
+      pageIds[i] = new PageId(first.pid + n);
+      pages[i] = new Page();
+      pages[i].setIntValue(i, 0);
+    }
+    int reads = Minibase.DiskManager.getReadCount();
+    int writes = Minibase.DiskManager.getWriteCount();
+    System.out.println("\n  ~> writing and reading " + size + " pages...");
+    Minibase.DiskManager.write_pages(pageIds, pages);
+
+    // read them back in batches and one by one
+    Page[] copies = new Page[size];
+    for (int i = 0; i < size; i++) {
+      copies[i] = new Page();
+    }
+    Minibase.DiskManager.read_pages(pageIds, copies);
+    for (int i = 0; i < size; i++) {
+      Page copy = new Page();
+      Minibase.DiskManager.read_page(pageIds[i], copy);
+      if (copies[i].getIntValue(0) != copy.getIntValue(0)
+          || (pageIds[i].pid != first.pid && copy.getIntValue(0) != i)) {
+        System.out.println("  ERROR: Wrong page contents!");
+        retval = false;
+      }
+    }
+    if (copies[size - 2].getIntValue(0) != size - 1) {
+      System.out.println("  ERROR: Last write of a page not kept!");
+      retval = false;
+    }
+    if (Minibase.DiskManager.getReadCount() - reads != size * 2
+        || Minibase.DiskManager.getWriteCount() - writes != size) {
+      System.out.println("  ERROR: Wrong read or write count!");
+      retval = false;
+    }
+
+    // invalid pages are rejected before any is written
+    try {
+      Minibase.DiskManager.write_pages(new PageId[] { first, new PageId(-1) },
+          new Page[] { new Page(), new Page() });
+      System.out.println("  ERROR: Invalid page written!");
+      retval = false;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("\n  ~> invalid page rejected");
+    }
+    Minibase.DiskManager.deallocate_page(first, size);
+
+    if (retval) {
+      System.out.println("\nTest 20 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test20()
+
+  /**
+   * Allocates and frees runs of pages, checking the space map.
+   */
+  protected boolean test21() {
+
+    System.out.println();
+    System.out.println("Test 21: Space map in memory");
+
+    // the first page freed is the first allocated again
+    int allocs = Minibase.DiskManager.getAllocCount();
+    PageId[] pageIds = new PageId[3];
+    for (int i = 0; i < pageIds.length; i++) {
+      pageIds[i] = Minibase.DiskManager.allocate_page();
+    }
+    Minibase.DiskManager.deallocate_page(pageIds[1]);
+    PageId pageno = Minibase.DiskManager.allocate_page();
+    if (pageno.pid != pageIds[1].pid) {
+      System.out.println("  ERROR: First free page not allocated!");
+      retval = false;
+    }
+
+    // runs across words are allocated, freed and counted
+    System.out.println("\n  ~> allocating runs of pages...");
+    PageId[] runs = new PageId[10];
+    for (int i = 0; i < runs.length; i++) {
+      runs[i] = Minibase.DiskManager.allocate_page(i * 13 + 1);
+      if (i > 0 && runs[i].pid < runs[i - 1].pid + (i - 1) * 13 + 1) {
+        System.out.println("  ERROR: Runs overlap!");
+        retval = false;
+      }
+    }
+    int kept = pageIds.length;
+    for (int i = 0; i < runs.length; i++) {
+      if (i % 2 == 0) {
+        Minibase.DiskManager.deallocate_page(runs[i], i * 13 + 1);
+      } else {
+        kept += i * 13 + 1;
+      }
+    }
+    if (Minibase.DiskManager.getAllocCount() - allocs != kept) {
+      System.out.println("  ERROR: Wrong allocation count!");
+      retval = false;
+    }
+
+    // the space map should be saved when flushed
+    System.out.println("\n  ~> reading the space map from disk...");
+    Minibase.BufferManager.flushAllFrames();
+    DiskMgr disk = new DiskMgr();
+    disk.openDB(Minibase.DatabaseName);
+    if (disk.getAllocCount() != Minibase.DiskManager.getAllocCount()) {
+      System.out.println("  ERROR: Space map not saved!");
+      retval = false;
+    }
+    disk.closeDB();
+
+    for (int i = 1; i < runs.length; i += 2) {
+      Minibase.DiskManager.deallocate_page(runs[i], i * 13 + 1);
+    }
+    for (int i = 0; i < pageIds.length; i++) {
+      Minibase.DiskManager.deallocate_page(pageIds[i]);
+    }
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.out.println("  ERROR: Pages left allocated!");
+      retval = false;
+    }
+
+    if (retval) {
+      System.out.println("\nTest 21 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test21()
+
+  /**
+   * Allocates pages from extents, alone and for an index.
+   */
+  protected boolean test22() {
+
+    System.out.println();
+    System.out.println("Test 22: Extents");
+
+    // pages of an extent are adjacent, and skipped by other allocations
+    int allocs = Minibase.DiskManager.getAllocCount();
+    Extent extent = new Extent(Extent.MIN_SIZE * 2);
+    PageId first = Minibase.DiskManager.allocate_page(extent);
+    PageId other = Minibase.DiskManager.allocate_page();
+    System.out.println("\n  ~> allocating " + Extent.MIN_SIZE * 2 + " pages from an extent...");
+    for (int i = 1; i < Extent.MIN_SIZE * 2; i++) {
+      if (Minibase.DiskManager.allocate_page(extent).pid != first.pid + i) {
+        System.out.println("  ERROR: Pages of an extent not adjacent!");
+        retval = false;
+      }
+    }
+    if (other.pid >= first.pid && other.pid < first.pid + Extent.MIN_SIZE * 2) {
+      System.out.println("  ERROR: Reserved page allocated!");
+      retval = false;
+    }
+
+    // once released, the pages left are allocated as usual
+    PageId next = Minibase.DiskManager.allocate_page(extent);
+    Minibase.DiskManager.release_extent(extent);
+    if (Minibase.DiskManager.allocate_page().pid != next.pid + 1) {
+      System.out.println("  ERROR: Released page not allocated!");
+      retval = false;
+    }
+    Minibase.DiskManager.deallocate_page(first, Extent.MIN_SIZE * 2);
+    Minibase.DiskManager.deallocate_page(next, 2);
+    Minibase.DiskManager.deallocate_page(other);
+    try {
+      new Extent(Extent.MAX_SIZE + 1);
+      System.out.println("  ERROR: Invalid extent size accepted!");
+      retval = false;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("\n  ~> invalid extent size rejected");
+    }
+
+    // an index with long overflow chains leaves no pages allocated
+    System.out.println("\n  ~> inserting " + FILE_SIZE + " duplicate keys...");
+    HashIndex index = new HashIndex("IX_Extents");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      index.insertEntry(new SearchKey(i % 4), new RID(new PageId(i), 0));
+    }
+    if (!contains(index, new SearchKey(1), new RID(new PageId(FILE_SIZE - 3), 0))) {
+      System.out.println("  ERROR: Search key not found in scan!");
+      retval = false;
+    }
+
+    // once closed, its reserved pages are allocated as usual, and it may
+    // still grow (reserving pages again)
+    PageId skipped = Minibase.DiskManager.allocate_page();
+    Minibase.DiskManager.deallocate_page(skipped);
+    index.close();
+    PageId released = Minibase.DiskManager.allocate_page();
+    Minibase.DiskManager.deallocate_page(released);
+    if (released.pid >= skipped.pid) {
+      System.out.println("  ERROR: Closed index kept its pages reserved!");
+      retval = false;
+    }
+    for (int i = 0; i < FILE_SIZE; i++) {
+      index.insertEntry(new SearchKey(i % 4), new RID(new PageId(i), 1));
+    }
+    if (!contains(index, new SearchKey(2), new RID(new PageId(FILE_SIZE - 2), 1))) {
+      System.out.println("  ERROR: Search key not found after closing!");
+      retval = false;
+    }
+    index.deleteFile();
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.out.println("  ERROR: Pages left allocated!");
+      retval = false;
+    }
+
+    if (retval) {
+      System.out.println("\nTest 22 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test22()
+
+  /**
+   * Dirties pages with the background flusher running.
+   */
+  protected boolean test23() {
+
+    System.out.println();
+    System.out.println("Test 23: Background flusher");
+
+    // dirty half the frames, stamping each page with its own id
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.BufferManager.setBackgroundFlush(true);
+    final int size = BUF_SIZE / 2;
+    final PageId[] pageIds = new PageId[size];
+    System.out.println("\n  ~> dirtying " + size + " pages...");
+    for (int i = 0; i < size; i++) {
+      Page page = new Page();
+      pageIds[i] = Minibase.BufferManager.newPage(page, 1);
+      page.setIntValue(pageIds[i].pid, 0);
+      Minibase.BufferManager.unpinPage(pageIds[i], UNPIN_DIRTY);
+    }
+
+    // the flusher should write most of them on its own
+    int written = 0;
+    for (int tries = 0; tries < 100 && written < size / 2; tries++) {
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException exc) {
+        break;
+      }
+      written = 0;
+      Page copy = new Page();
+      for (int i = 0; i < size; i++) {
+        Minibase.DiskManager.read_page(pageIds[i], copy);
+        if (copy.getIntValue(0) == pageIds[i].pid) {
+          written++;
+        }
+      }
+    }
+    System.out.println("\n  ~> " + written + " of " + size + " pages written");
+    if (written < size / 2) {
+      System.out.println("  ERROR: Dirty pages not written in the background!");
+      retval = false;
+    }
+
+    // changes made while it runs should not be lost
+    System.out.println("\n  ~> changing the pages in 4 threads...");
+    runThreads(4, new Task() {
+      public void run(int thread) {
+        Page page = new Page();
+        for (int i = 0; i < FILE_SIZE; i++) {
+          PageId pageno = pageIds[(i * 7 + thread) % size];
+          Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+          if (page.getIntValue(0) != pageno.pid) {
+            throw new IllegalStateException("wrong page contents");
+          }
+          page.setIntValue(i, 4 + thread * 4);
+          Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+        }
+      }
+    });
+
+    // closing the database stops it until reopened, while closing another
+    // one leaves it running
+    System.out.println("\n  ~> closing and reopening the database...");
+    DiskMgr disk = new DiskMgr();
+    disk.openDB(Minibase.DatabaseName);
+    disk.closeDB();
+    if (!Minibase.BufferManager.isBackgroundFlush()) {
+      System.out.println("  ERROR: Flusher stopped by another database!");
+      retval = false;
+    }
+    Minibase.DiskManager.closeDB();
+    if (Minibase.BufferManager.isBackgroundFlush()) {
+      System.out.println("  ERROR: Flusher running while closed!");
+      retval = false;
+    }
+    Minibase.DiskManager.openDB(Minibase.DatabaseName);
+    if (!Minibase.BufferManager.isBackgroundFlush()) {
+      System.out.println("  ERROR: Flusher not restarted!");
+      retval = false;
+    }
+    Minibase.BufferManager.setBackgroundFlush(false);
+    if (Minibase.BufferManager.isBackgroundFlush()) {
+      System.out.println("  ERROR: Flusher not stopped!");
+      retval = false;
+    }
+    Minibase.BufferManager.flushAllFrames();
+    int[][] last = new int[size][4];
+    for (int thread = 0; thread < 4; thread++) {
+      for (int i = 0; i < FILE_SIZE; i++) {
+        last[(i * 7 + thread) % size][thread] = i;
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      Page copy = new Page();
+      Minibase.DiskManager.read_page(pageIds[i], copy);
+      boolean same = (copy.getIntValue(0) == pageIds[i].pid);
+      for (int thread = 0; thread < 4; thread++) {
+        same &= (copy.getIntValue(4 + thread * 4) == last[i][thread]);
+      }
+      if (!same) {
+        System.out.println("  ERROR: Wrong page contents on disk!");
+        retval = false;
+      }
+      Minibase.BufferManager.freePage(pageIds[i]);
+    }
+
+    if (retval) {
+      System.out.println("\nTest 23 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test23()
+
+  /**
+   * Reading overflow pages ahead.
+   */
+  protected boolean test24() {
+
+    System.out.println();
+    System.out.println("Test 24: Read-ahead");
+
+    // pages read ahead are copied, and then pinned without reading them
+    int allocs = Minibase.DiskManager.getAllocCount();
+    PageId first = Minibase.DiskManager.allocate_page(4);
+    Page page = new Page();
+    for (int i = 0; i < 4; i++) {
+      page.setIntValue(first.pid + i, 0);
+      Minibase.DiskManager.write_page(new PageId(first.pid + i), page);
+    }
+    System.out.println("\n  ~> reading 4 pages ahead...");
+    for (int i = 0; i < 4; i++) {
+      PageId pageno = new PageId(first.pid + i);
+      if (!Minibase.BufferManager.readAhead(pageno, page, ACCESS_RANDOM)
+          || page.getIntValue(0) != pageno.pid) {
+        System.out.println("  ERROR: Page not read ahead!");
+        retval = false;
+      }
+    }
+    if (Minibase.BufferManager.readAhead(first, page, ACCESS_RANDOM)
+        || !Minibase.BufferManager.isResident(first)) {
+      System.out.println("  ERROR: Resident page read ahead again!");
+      retval = false;
+    }
+    int reads = Minibase.DiskManager.getReadCount();
+    for (int i = 0; i < 4; i++) {
+      PageId pageno = new PageId(first.pid + i);
+      Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+      if (page.getIntValue(0) != pageno.pid) {
+        System.out.println("  ERROR: Wrong page contents!");
+        retval = false;
+      }
+      Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+      Minibase.BufferManager.freePage(pageno);
+    }
+    if (Minibase.DiskManager.getReadCount() != reads) {
+      System.out.println("  ERROR: Page read again after reading ahead!");
+      retval = false;
+    }
+
+    // nothing is read ahead while disallowed
+    Minibase.BufferManager.setReadAhead(false);
+    if (Minibase.BufferManager.readAhead(new PageId(FIRST_PAGEID), page, ACCESS_RANDOM)) {
+      System.out.println("  ERROR: Page read ahead while disallowed!");
+      retval = false;
+    }
+    Minibase.BufferManager.setReadAhead(true);
+
+    // scans of long overflow chains (read ahead) in many threads
+    System.out.println("\n  ~> inserting " + FILE_SIZE + " duplicate keys...");
+    final HashIndex index = new HashIndex(null);
+    for (int i = 0; i < FILE_SIZE; i++) {
+      index.insertEntry(new SearchKey(i % 4), new RID(new PageId(i), 0));
+    }
+    System.out.println("\n  ~> scanning the keys in 4 threads...");
+    runThreads(4, new Task() {
+      public void run(int thread) {
+        for (int i = 0; i < 4; i++) {
+          int count = 0;
+          HashScan scan = index.openScan(new SearchKey((thread + i) % 4));
+          for (RID rid = scan.getNext(); rid != null; rid = scan.getNext()) {
+            if (rid.pageno.pid % 4 != (thread + i) % 4) {
+              throw new IllegalStateException("wrong RID in scan");
+            }
+            count++;
+          }
+          scan.close();
+          if (count != FILE_SIZE / 4) {
+            throw new IllegalStateException("wrong number of RIDs in scan");
+          }
+        }
+      }
+    });
+    index.deleteFile();
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      System.out.println("  ERROR: Pages left pinned!");
+      retval = false;
+    }
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.out.println("  ERROR: Pages left allocated!");
+      retval = false;
+    }
+
+    if (retval) {
+      System.out.println("\nTest 24 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test24()
+
+  /**
+   * Bucket filters for missing keys.
+   */
+  protected boolean test25() {
+
+    System.out.println();
+    System.out.println("Test 25: Bucket filters");
+
+    // an index larger than the buffer pool, holding the even keys
+    int size = FILE_SIZE * 4;
+    System.out.println("\n  ~> inserting " + size + " even integers...");
+    HashIndex index = new HashIndex(null);
+    for (int i = 0; i < size; i++) {
+      index.insertEntry(new SearchKey(i * 2), new RID(new PageId(i), 0));
+    }
+
+    // once each bucket has been looked up, missing keys read almost nothing
+    for (int i = 0; i < 1000; i++) {
+      if (index.openScan(new SearchKey(i * 2 + 1)).getNext() != null) {
+        System.out.println("  ERROR: Missing key found in scan!");
+        retval = false;
+      }
+    }
+    Minibase.BufferManager.flushAllFrames();
+    int reads = Minibase.DiskManager.getReadCount();
+    for (int i = 0; i < size; i += 7) {
+      HashScan scan = index.openScan(new SearchKey(i * 2 + 1));
+      if (scan.getNext() != null) {
+        System.out.println("  ERROR: Missing key found in scan!");
+        retval = false;
+      }
+      scan.close();
+    }
+    int missing = Minibase.DiskManager.getReadCount() - reads;
+    reads = Minibase.DiskManager.getReadCount();
+    for (int i = 0; i < size; i += 7) {
+      if (!contains(index, new SearchKey(i * 2), new RID(new PageId(i), 0))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+    int present = Minibase.DiskManager.getReadCount() - reads;
+    System.out.println("\n  ~> " + missing + " pages read for missing keys, " + present
+        + " for present keys");
+    if (missing * 4 > present) {
+      System.out.println("  ERROR: Pages read for missing keys!");
+      retval = false;
+    }
+
+    // keys inserted (and filters outgrown) later are still found, also by
+    // concurrent lookups
+    System.out.println("\n  ~> inserting " + size + " odd integers...");
+    for (int i = 0; i < size; i++) {
+      index.insertEntry(new SearchKey(i * 2 + 1), new RID(new PageId(i), 1));
+    }
+    index.setConcurrent(true);
+    SearchKey[] keys = new SearchKey[size / 7 + 1];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new SearchKey(i * 14 + 1);
+    }
+    RID[][] rids = index.lookupAll(keys);
+    for (int i = 0; i < keys.length; i++) {
+      if (rids[i].length != 1 || !rids[i][0].equals(new RID(new PageId(i * 7), 1))) {
+        System.out.println("  ERROR: Search key not found by lookup!");
+        retval = false;
+      }
+      if (!contains(index, keys[i], new RID(new PageId(i * 7), 1))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+    if (index.openScan(new SearchKey(size * 2 + 1)).getNext() != null) {
+      System.out.println("  ERROR: Missing key found in scan!");
+      retval = false;
+    }
+    index.deleteFile();
+
+    // once reopened, a bucket's filter is built by the first scan through it
+    System.out.println("\n  ~> reopening, and scanning each bucket once...");
+    FilterIndex filtered = new FilterIndex("IX_Filters");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      filtered.insertEntry(new SearchKey(i * 2), new RID(new PageId(i), 0));
+    }
+    filtered.close();
+    filtered = new FilterIndex("IX_Filters");
+    SearchKey absent = new SearchKey(FILE_SIZE * 2);
+    if (filtered.hasFilter(absent)) {
+      System.out.println("  ERROR: Filter kept across reopening!");
+      retval = false;
+    }
+    if (filtered.openScan(absent).getNext() != null) {
+      System.out.println("  ERROR: Missing key found in scan!");
+      retval = false;
+    }
+    if (!filtered.hasFilter(absent)) {
+      System.out.println("  ERROR: Filter not built by a scan!");
+      retval = false;
+    }
+
+    // and optimistic lookups read buckets without one, rather than give up
+    System.out.println("\n  ~> reopening, and looking up keys optimistically...");
+    filtered.close();
+    filtered = new FilterIndex("IX_Filters");
+    filtered.setConcurrent(true);
+    for (int i = 0; i < FILE_SIZE; i += 7) {
+      if (!contains(filtered, new SearchKey(i * 2), new RID(new PageId(i), 0))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+    if (filtered.fallbacks > 0) {
+      System.out.println("  ERROR: " + filtered.fallbacks + " optimistic lookups gave up!");
+      retval = false;
+    }
+    filtered.deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 25 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test25()
+
+  /**
+   * Posting lists of duplicate keys.
+   */
+  protected boolean test26() {
+
+    System.out.println();
+    System.out.println("Test 26: Posting lists");
+
+    // each duplicate should only take the space of its RID
+    final String[] colors = { "red", "green", "blue" };
+    int allocs = Minibase.DiskManager.getAllocCount();
+    System.out.println("\n  ~> inserting " + FILE_SIZE + " entries with 3 keys...");
+    HashIndex index = new HashIndex("IX_Postings");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      int j = (i * 7) % FILE_SIZE;
+      index.insertEntry(new SearchKey(colors[j % 3]), new RID(new PageId(j), j % 5));
+    }
+    int pages = Minibase.DiskManager.getAllocCount() - allocs;
+    System.out.println("\n  ~> " + pages + " pages used");
+    if (pages * PAGE_SIZE > FILE_SIZE * 12) {
+      System.out.println("  ERROR: Duplicate keys stored again!");
+      retval = false;
+    }
+    if (!checkPostings(index, colors, 0)) {
+      retval = false;
+    }
+
+    // deleting RIDs, then whole lists
+    System.out.println("\n  ~> deleting the entries for one key...");
+    for (int j = 0; j < FILE_SIZE; j += 3) {
+      index.deleteEntry(new SearchKey("red"), new RID(new PageId(j), j % 5));
+      if (j == FILE_SIZE / 2 && !contains(index, new SearchKey("red"),
+          new RID(new PageId(j + 3), (j + 3) % 5))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+      }
+    }
+    if (index.openScan(new SearchKey("red")).getNext() != null) {
+      System.out.println("  ERROR: Deleted key found in scan!");
+      retval = false;
+    }
+    try {
+      index.deleteEntry(new SearchKey("green"), new RID(new PageId(0), 0));
+      System.out.println("  ERROR: Missing entry deleted!");
+      retval = false;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("\n  ~> missing entry not deleted");
+    }
+    if (!checkPostings(index, colors, 1)) {
+      retval = false;
+    }
+    index.deleteFile();
+
+    // bulk loading groups the duplicates the same way
+    System.out.println("\n  ~> bulk loading " + FILE_SIZE + " entries with 3 keys...");
+    ArrayList<Map.Entry<SearchKey, RID>> entries = new ArrayList<Map.Entry<SearchKey, RID>>();
+    for (int i = 0; i < FILE_SIZE; i++) {
+      int j = (i * 7) % FILE_SIZE;
+      entries.add(new AbstractMap.SimpleEntry<SearchKey, RID>(new SearchKey(colors[j % 3]),
+          new RID(new PageId(j), j % 5)));
+    }
+    index = new HashIndex("IX_Postings", HashIndex.EXTENDIBLE);
+    index.bulkLoad(entries.iterator());
+    if (!checkPostings(index, colors, 0)) {
+      retval = false;
+    }
+    index.deleteFile();
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.out.println("  ERROR: Pages left allocated!");
+      retval = false;
+    }
+
+    if (retval) {
+      System.out.println("\nTest 26 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test26()
+
+  /**
+   * True if a scan of the index for each of the given keys, starting from the
+   * given one, returns exactly the RIDs inserted for it by test26.
+   */
+  protected boolean checkPostings(HashIndex index, String[] keys, int first) {
+
+    boolean result = true;
+    for (int k = first; k < keys.length; k++) {
+      boolean[] seen = new boolean[FILE_SIZE];
+      int count = 0;
+      HashScan scan = index.openScan(new SearchKey(keys[k]));
+      for (RID rid = scan.getNext(); rid != null; rid = scan.getNext()) {
+        int j = rid.pageno.pid;
+        if (j % 3 != k || rid.slotno != j % 5 || seen[j]) {
+          System.out.println("  ERROR: Wrong RID in scan!");
+          result = false;
+          break;
+        }
+        seen[j] = true;
+        count++;
+      }
+      scan.close();
+      if (count != FILE_SIZE / 3) {
+        System.out.println("  ERROR: Wrong number of RIDs in scan!");
+        result = false;
+      }
+    }
+    return result;
+
+  } // protected boolean checkPostings(HashIndex index, String[] keys, int first)
+
+  /**
+   * Compressed posting lists.
+   */
+  protected boolean test27() {
+
+    System.out.println();
+    System.out.println("Test 27: Compressed posting lists");
+
+    // nearby RIDs should take a few bytes each, whatever the insert order
+    System.out.println("\n  ~> inserting " + FILE_SIZE + " clustered RIDs in random order...");
+    int allocs = Minibase.DiskManager.getAllocCount();
+    ArrayList<Integer> order = new ArrayList<Integer>();
+    for (int i = 0; i < FILE_SIZE; i++) {
+      order.add(i);
+    }
+    Collections.shuffle(order, new Random(27));
+    HashIndex index = new HashIndex("IX_Compressed");
+    SearchKey key = new SearchKey(27);
+    for (int i : order) {
+      index.insertEntry(key, new RID(new PageId(i / 10), i % 10));
+    }
+    int pages = Minibase.DiskManager.getAllocCount() - allocs;
+    System.out.println("\n  ~> " + pages + " pages used");
+    if (pages * PAGE_SIZE > FILE_SIZE * 4) {
+      System.out.println("  ERROR: RIDs not compressed!");
+      retval = false;
+    }
+    boolean[] expected = new boolean[FILE_SIZE];
+    Arrays.fill(expected, true);
+    if (!checkClustered(index, key, expected)) {
+      retval = false;
+    }
+
+    // deleting half of them leaves the others
+    System.out.println("\n  ~> deleting half of them in random order...");
+    for (int i : order) {
+      if (i % 2 == 1) {
+        index.deleteEntry(key, new RID(new PageId(i / 10), i % 10));
+        expected[i] = false;
+      }
+    }
+    if (!checkClustered(index, key, expected)) {
+      retval = false;
+    }
+
+    // extreme and duplicate RIDs still round trip
+    System.out.println("\n  ~> inserting extreme and duplicate RIDs...");
+    SearchKey other = new SearchKey(-27);
+    RID[] extremes = { new RID(new PageId(Integer.MAX_VALUE), -1),
+        new RID(new PageId(Integer.MIN_VALUE), Integer.MAX_VALUE),
+        new RID(new PageId(Integer.MAX_VALUE), Integer.MIN_VALUE),
+        new RID(new PageId(-1), 5), new RID(new PageId(0), 0),
+        new RID(new PageId(0), 0), new RID(new PageId(1), 200000) };
+    for (RID rid : extremes) {
+      index.insertEntry(other, rid);
+    }
+    ArrayList<RID> found = new ArrayList<RID>();
+    HashScan scan = index.openScan(other);
+    for (RID rid = scan.getNext(); rid != null; rid = scan.getNext()) {
+      found.add(rid);
+    }
+    scan.close();
+    boolean match = (found.size() == extremes.length);
+    for (RID rid : extremes) {
+      match &= found.remove(rid);
+    }
+    if (!match) {
+      System.out.println("  ERROR: Wrong RIDs in scan!");
+      retval = false;
+    }
+
+    // deleting everything frees every page
+    System.out.println("\n  ~> deleting everything...");
+    for (RID rid : extremes) {
+      index.deleteEntry(other, rid);
+    }
+    for (int i = 0; i < FILE_SIZE; i += 2) {
+      index.deleteEntry(key, new RID(new PageId(i / 10), i % 10));
+    }
+    if (index.openScan(key).getNext() != null
+        || index.openScan(other).getNext() != null) {
+      System.out.println("  ERROR: Deleted key found in scan!");
+      retval = false;
+    }
+    index.deleteFile();
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.out.println("  ERROR: Pages left allocated!");
+      retval = false;
+    }
+
+    if (retval) {
+      System.out.println("\nTest 27 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test27()
+
+  /**
+   * True if a scan of the index for the given key returns exactly the
+   * expected RIDs inserted by test27, once each.
+   */
+  protected boolean checkClustered(HashIndex index, SearchKey key,
+      boolean[] expected) {
+
+    boolean[] seen = new boolean[FILE_SIZE];
+    boolean result = true;
+    HashScan scan = index.openScan(key);
+    for (RID rid = scan.getNext(); rid != null; rid = scan.getNext()) {
+      int i = rid.pageno.pid * 10 + rid.slotno;
+      if (rid.slotno < 0 || rid.slotno >= 10 || i < 0 || i >= FILE_SIZE
+          || !expected[i] || seen[i]) {
+        System.out.println("  ERROR: Wrong RID in scan!");
+        result = false;
+        break;
+      }
+      seen[i] = true;
+    }
+    scan.close();
+    if (result && !Arrays.equals(seen, expected)) {
+      System.out.println("  ERROR: RID missing from scan!");
+      result = false;
+    }
+    return result;
+
+  } // protected boolean checkClustered(HashIndex index, SearchKey key, boolean[] expected)
+
+  /**
+   * String keys with leading and trailing blanks, or accented characters,
+   * and long values (which are rejected).
+   */
+  protected boolean test28() {
+
+    System.out.println();
+    System.out.println("Test 28: Keys with blanks, accents, or long values");
+
+    // splitting buckets rehashes keys read back from the pages
+    System.out.println("\n  ~> building an extendible index of " + FILE_SIZE
+        + " blank-padded strings...");
+    String fileName = "IX_Blanks";
+    HashIndex index = new HashIndex(fileName, HashIndex.EXTENDIBLE);
+    for (int i = 0; i < FILE_SIZE; i++) {
+      index.insertEntry(new SearchKey(padded(i)), new RID(new PageId(i), 0));
+    }
+
+    index.close();
+    System.out.println("\n  ~> reopening and scanning all entries...");
+    index = new HashIndex(fileName);
+    for (int i = 0; i < FILE_SIZE; i++) {
+      if (!contains(index, new SearchKey(padded(i)), new RID(new PageId(i), 0))) {
+        System.out.println("  ERROR: Search key not found in scan!");
+        retval = false;
+        break;
+      }
+    }
+    if (index.openScan(new SearchKey("k1")).getNext() != null) {
+      System.out.println("  ERROR: Trimmed key found in scan!");
+      retval = false;
+    }
+
+    // stored one byte per character, whatever the platform's encoding
+    System.out.println("\n  ~> inserting and scanning accented strings...");
+    String[] accented = { "caf\u00e9", "\u00fcber", "na\u00efve" };
+    for (int i = 0; i < accented.length; i++) {
+      index.insertEntry(new SearchKey(accented[i]), new RID(new PageId(i), 1));
+    }
+    index = new HashIndex(fileName);
+    for (int i = 0; i < accented.length; i++) {
+      if (!contains(index, new SearchKey(accented[i]), new RID(new PageId(i), 1))) {
+        System.out.println("  ERROR: Accented key not found in scan!");
+        retval = false;
+      }
+    }
+
+    System.out.println("\n  ~> constructing a key from a long...");
+    try {
+      new SearchKey(1L << 40);
+      System.out.println("     *** missing IllegalArgumentException");
+      retval = false;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("     *** failed as expected");
+    }
+
+    System.out.println("\n  ~> deleting the index file...");
+    index.deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 28 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test28()
+
+  /**
+   * Gets the given string key of test28, with a leading or trailing blank.
+   */
+  protected static String padded(int i) {
+    return (i % 2 == 0) ? " k" + i : "k" + i + " ";
+  }
+
+  /**
+   * Bucket filters built from the keys on the pages.
+   */
+  protected boolean test29() {
+
+    System.out.println();
+    System.out.println("Test 29: Bucket filters of stored keys");
+
+    // keys hash the same from their stored bytes as from themselves
+    System.out.println("\n  ~> hashing stored keys...");
+    SearchKey[] keys = { new SearchKey(0), new SearchKey(-29), new SearchKey(2.9f),
+        new SearchKey(""), new SearchKey(" "), new SearchKey("abc "),
+        new SearchKey(" abcd"), new SearchKey("abcdefghi  ") };
+    byte[] data = new byte[PAGE_SIZE];
+    for (SearchKey key : keys) {
+      key.writeData(data, (short) 1);
+      for (int function = HashFunction.DEFAULT; function <= HashFunction.MURMUR3; function++) {
+        if (SearchKey.getHash(data, 1, function, 31) != key.getHash(function, 31)) {
+          System.out.println("  ERROR: Stored key hashed differently!");
+          retval = false;
+        }
+      }
+    }
+
+    // a filter built after reopening still admits keys with blanks
+    System.out.println("\n  ~> inserting keys with blanks, then reopening...");
+    String fileName = "IX_StoredKeys";
+    String[] values = { "abc ", " abc", "abc", "  " };
+    HashIndex index = new HashIndex(fileName);
+    for (int i = 0; i < values.length; i++) {
+      index.insertEntry(new SearchKey(values[i]), new RID(new PageId(i), 0));
+    }
+    index.close();
+    index = new HashIndex(fileName);
+    for (int i = 0; i < values.length; i++) {
+      if (!contains(index, new SearchKey(values[i]), new RID(new PageId(i), 0))
+          || index.lookupAll(new SearchKey[] { new SearchKey(values[i]) })[0].length != 1) {
+        System.out.println("  ERROR: Search key not found after reopening!");
+        retval = false;
+      }
+    }
+    index.deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 29 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test29()
+
+  /**
+   * Load factors of linear indexes with many duplicates.
+   */
+  protected boolean test30() {
+
+    System.out.println();
+    System.out.println("Test 30: Linear load factor with posting lists");
+
+    // duplicates only take the space of their encoded RIDs, so the initial
+    // 128 buckets are enough (rather than the ~470 that whole entries need)
+    int size = 20000;
+    System.out.println("\n  ~> inserting " + size + " entries with 10 keys...");
+    SizedLinearIndex index = new SizedLinearIndex("IX_LinearDups");
+    for (int i = 0; i < size; i++) {
+      index.insertEntry(new SearchKey(i % 10), new RID(new PageId(i), 0));
+    }
+    System.out.println("\n  ~> " + index.getBuckets() + " buckets for "
+        + index.getDataSize() + " bytes");
+    if (index.getBuckets() > 128) {
+      System.out.println("  ERROR: Load factor overestimated!");
+      retval = false;
+    }
+
+    // an insert that splits no bucket only writes its own page
+    Minibase.BufferManager.flushAllFrames();
+    int writes = Minibase.DiskManager.getWriteCount();
+    index.insertEntry(new SearchKey(0), new RID(new PageId(size), 0));
+    Minibase.BufferManager.flushAllFrames();
+    if (Minibase.DiskManager.getWriteCount() - writes != 1) {
+      System.out.println("  ERROR: Insert wrote more than its page!");
+      retval = false;
+    }
+    index.deleteEntry(new SearchKey(0), new RID(new PageId(size), 0));
+
+    // the data size is saved when the index is closed
+    System.out.println("\n  ~> closing and reopening...");
+    int dataSize = index.getDataSize();
+    index.close();
+    index = new SizedLinearIndex("IX_LinearDups");
+    if (index.getDataSize() != dataSize) {
+      System.out.println("  ERROR: Data size not saved on close!");
+      retval = false;
+    }
+
+    // deleting everything frees exactly what was counted
+    System.out.println("\n  ~> deleting everything...");
+    for (int i = 0; i < size; i++) {
+      index.deleteEntry(new SearchKey(i % 10), new RID(new PageId(i), 0));
+    }
+    if (index.getDataSize() != 0) {
+      System.out.println("  ERROR: Data size not counted exactly!");
+      retval = false;
+    }
+    index.deleteFile();
+
+    // bulk loading plans the same number of buckets
+    System.out.println("\n  ~> bulk loading them...");
+    ArrayList<Map.Entry<SearchKey, RID>> entries = new ArrayList<Map.Entry<SearchKey, RID>>();
+    for (int i = 0; i < size; i++) {
+      entries.add(new AbstractMap.SimpleEntry<SearchKey, RID>(new SearchKey(i % 10),
+          new RID(new PageId(i), 0)));
+    }
+    index = new SizedLinearIndex("IX_LinearDups");
+    index.bulkLoad(entries.iterator());
+    System.out.println("\n  ~> " + index.getBuckets() + " buckets for "
+        + index.getDataSize() + " bytes");
+    if (index.getBuckets() > 128) {
+      System.out.println("  ERROR: Load factor overestimated!");
+      retval = false;
+    }
+    index.deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 30 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test30()
+
+  /**
+   * Bulk loading compressed posting lists.
+   */
+  protected boolean test31() {
+
+    System.out.println();
+    System.out.println("Test 31: Bulk loading compressed posting lists");
+
+    // appended RIDs are encoded as compactly as inserted ones
+    System.out.println("\n  ~> bulk loading " + FILE_SIZE + " clustered RIDs in random order...");
+    ArrayList<Map.Entry<SearchKey, RID>> entries = new ArrayList<Map.Entry<SearchKey, RID>>();
+    SearchKey key = new SearchKey(31);
+    for (int i = 0; i < FILE_SIZE; i++) {
+      entries.add(new AbstractMap.SimpleEntry<SearchKey, RID>(key,
+          new RID(new PageId(i / 10), i % 10)));
+    }
+    Collections.shuffle(entries, new Random(31));
+    int allocs = Minibase.DiskManager.getAllocCount();
+    ChainIndex index = new ChainIndex("IX_CompressedLoad");
+    index.bulkLoad(entries.iterator());
+    int pages = Minibase.DiskManager.getAllocCount() - allocs;
+    System.out.println("\n  ~> " + pages + " pages used");
+    if (pages * PAGE_SIZE > FILE_SIZE * 4) {
+      System.out.println("  ERROR: RIDs not compressed!");
+      retval = false;
+    }
+
+    // the bucket's pages are written in order, so they follow each other
+    int[] chain = index.getChain(key);
+    for (int i = 1; i < chain.length; i++) {
+      if (chain[i] != chain[i - 1] + 1) {
+        System.out.println("  ERROR: Bulk loaded pages not in ascending order!");
+        retval = false;
+        break;
+      }
+    }
+    boolean[] expected = new boolean[FILE_SIZE];
+    Arrays.fill(expected, true);
+    if (!checkClustered(index, key, expected)) {
+      retval = false;
+    }
+
+    // and can be deleted in any order
+    System.out.println("\n  ~> deleting them in random order...");
+    for (Map.Entry<SearchKey, RID> entry : entries) {
+      index.deleteEntry(entry.getKey(), entry.getValue());
+    }
+    if (index.openScan(key).getNext() != null) {
+      System.out.println("  ERROR: Deleted key found in scan!");
+      retval = false;
+    }
+    index.deleteFile();
+
+    if (retval) {
+      System.out.println("\nTest 31 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test31()
+
+  /**
+   * Opening an index file of the original format.
+   */
+  protected boolean test32() {
+
+    System.out.println();
+    System.out.println("Test 32: Index file formats");
+
+    // write a directory as the original format did: the entry count, the
+    // next page id, and then the entries (with no other header fields)
+    System.out.println("\n  ~> opening an index file of the original format...");
+    int allocs = Minibase.DiskManager.getAllocCount();
+    Page page = new Page();
+    PageId headId = Minibase.BufferManager.newPage(page, 1);
+    page.setShortValue((short) 128, 0);
+    page.setIntValue(INVALID_PAGEID, 2);
+    for (int i = 0; i < 128; i++) {
+      page.setIntValue(INVALID_PAGEID, 6 + i * 5);
+    }
+    Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+    Minibase.DiskManager.add_file_entry("IX_OldFormat", headId);
+
+    // it is rejected, rather than read as the current one
+    try {
+      new HashIndex("IX_OldFormat");
+      System.out.println("  ERROR: Index file of the original format opened!");
+      retval = false;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("\n  ~> index file of the original format rejected");
+    }
+    if (Minibase.BufferManager.getNumUnpinned() != BUF_SIZE) {
+      System.out.println("  ERROR: Directory left pinned!");
+      retval = false;
+    }
+    Minibase.DiskManager.delete_file_entry("IX_OldFormat");
+    Minibase.BufferManager.freePage(headId);
+
+    // while files of the current format are reopened as usual
+    System.out.println("\n  ~> reopening an index file of the current format...");
+    HashIndex index = new HashIndex("IX_NewFormat", HashIndex.EXTENDIBLE);
+    index.insertEntry(new SearchKey(32), new RID(new PageId(32), 0));
+    index.close();
+    index = new HashIndex("IX_NewFormat");
+    if (!contains(index, new SearchKey(32), new RID(new PageId(32), 0))) {
+      System.out.println("  ERROR: Search key not found after reopening!");
+      retval = false;
+    }
+    index.deleteFile();
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.out.println("  ERROR: Pages left allocated!");
+      retval = false;
+    }
+
+    if (retval) {
+      System.out.println("\nTest 32 completed successfully.\n");
+    }
+    return retval;
+
+  } // protected boolean test32()
+
+  /**
+   * A linear index that shows its number of buckets and data size.
+   */
+  protected static class SizedLinearIndex extends LinearHashIndex {
+
+    public SizedLinearIndex(String fileName) {
+      super(fileName);
+    }
+
+    public int getBuckets() {
+      return getBucketCount();
+    }
+
+    public int getDataSize() {
+      return dataSize;
+    }
+
+  } // protected static class SizedLinearIndex extends LinearHashIndex
+
+  /**
+   * An extendible index that notes whether keys are hashed outside of the
+   * thread that created it.
+   */
+  protected static class CallerIndex extends HashIndex {
+
+    protected final Thread caller = Thread.currentThread();
+
+    protected volatile boolean elsewhere;
+
+    public CallerIndex(String fileName) {
+      super(fileName, HashIndex.EXTENDIBLE);
+    }
+
+    protected int getBucketNo(SearchKey key) {
+      if (caller != null && Thread.currentThread() != caller) {
+        elsewhere = true;
+      }
+      return super.getBucketNo(key);
+    }
+
+  } // protected static class CallerIndex extends HashIndex
+
+  /**
+   * An extendible index that shows the page ids of a bucket's chain.
+   */
+  protected static class ChainIndex extends HashIndex {
+
+    public ChainIndex(String fileName) {
+      super(fileName, HashIndex.EXTENDIBLE);
+    }
+
+    /**
+     * Gets the page ids of the given key's bucket, from the primary page on
+     * (following the next page id of each page, at offset 4).
+     */
+    public int[] getChain(SearchKey key) {
+      ArrayList<Integer> pids = new ArrayList<Integer>();
+      Page page = new Page();
+      for (PageId pageno = getBucketId(key); pageno.pid != INVALID_PAGEID; ) {
+        pids.add(pageno.pid);
+        Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+        PageId next = new PageId(page.getIntValue(4));
+        Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+        pageno = next;
+      }
+      int[] chain = new int[pids.size()];
+      for (int i = 0; i < chain.length; i++) {
+        chain[i] = pids.get(i);
+      }
+      return chain;
+    }
+
+  } // protected static class ChainIndex extends HashIndex
+
+  /**
+   * A static index that shows whether a bucket has a filter, and counts the
+   * optimistic lookups that give up.
+   */
+  protected static class FilterIndex extends HashIndex {
+
+    protected int fallbacks;
+
+    public FilterIndex(String fileName) {
+      super(fileName, HashIndex.STATIC);
+    }
+
+    public boolean hasFilter(SearchKey key) {
+      return (getFilter(getBucketId(key)) != null);
+    }
+
+    protected RID[] tryLookup(SearchKey key) {
+      RID[] rids = super.tryLookup(key);
+      if (rids == null) {
+        fallbacks++;
+      }
+      return rids;
+    }
+
+  } // protected static class FilterIndex extends HashIndex
+
+  /**
+   * A buffer manager that counts the pages pinned, in all and of the
+   * watched page ids.
+   */
+  protected static class CountingBufMgr extends BufMgr {
+
+    protected int pins;
+
+    protected int watchedPins;
+
+    protected HashSet<Integer> watched = new HashSet<Integer>();
+
+    public CountingBufMgr(int numbufs) {
+      super(numbufs);
+    }
+
+    public void pinPage(PageId pageno, Page mempage, int contents, int hint) {
+      pins++;
+      if (watched.contains(pageno.pid)) {
+        watchedPins++;
+      }
+      super.pinPage(pageno, mempage, contents, hint);
+    }
+
+  } // protected static class CountingBufMgr extends BufMgr
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * True if a scan of the index for the given key returns the given RID.
+   */
+  protected boolean contains(HashIndex index, SearchKey key, RID rid) {
+
+    boolean result = false;
+    HashScan scan = index.openScan(key);
+    for (RID next = scan.getNext(); next != null; next = scan.getNext()) {
+      if (next.equals(rid)) {
+        result = true;
+      }
+    }
+    scan.close();
+    return result;
+
+  } // protected boolean contains(HashIndex index, SearchKey key, RID rid)
+
+  /**
+   * Flushes the buffer pool and replaces it with one that counts pins.
+   */
+  protected CountingBufMgr countPins() {
+
+    Minibase.BufferManager.flushAllFrames();
+    CountingBufMgr bufmgr = new CountingBufMgr(BUF_SIZE);
+    Minibase.BufferManager = bufmgr;
+    return bufmgr;
+
+  } // protected CountingBufMgr countPins()
+
+  /**
+   * Flushes the buffer pool and replaces it with a plain one again.
+   */
+  protected void stopCountingPins() {
+
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.BufferManager = new BufMgr(BUF_SIZE);
+
+  } // protected void stopCountingPins()
+
+  /**
+   * Work done by each thread of a concurrent test.
+   */
+  protected interface Task {
+    void run(int thread);
+  }
+
+  /**
+   * Runs the given task in the given number of threads, and waits for them
+   * all to finish; fails the current test if any of them throws.
+   */
+  protected void runThreads(int count, final Task task) {
+
+    Thread[] threads = new Thread[count];
+    final Throwable[] errors = new Throwable[count];
+    for (int i = 0; i < count; i++) {
+      final int thread = i;
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            task.run(thread);
+          } catch (Throwable exc) {
+            errors[thread] = exc;
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (int i = 0; i < count; i++) {
+      try {
+        threads[i].join();
+      } catch (InterruptedException exc) {
+        errors[i] = exc;
+      }
+      if (errors[i] != null) {
+        System.out.println("  ERROR: Thread " + i + " failed: " + errors[i]);
+        errors[i].printStackTrace();
+        retval = false;
+      }
+    }
+
+  } // protected void runThreads(int count, final Task task)
   
 } // class IXTest extends TestDriver